@@ -0,0 +1,230 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Standalone load test (no build needed): java loadtest/ChatLoadTest.java <llm|chat> [options]
+//
+//   llm  --port 9090 --delay-ms 2000
+//        Simulated slow OpenAI-compatible API (/v1/chat/completions, /v1/embeddings). Point the app at it
+//        with OPENAI_BASE_URL=http://localhost:9090/v1. GET /stats reports current and peak in-flight calls.
+//
+//   chat --url http://localhost:8080 --concurrency 1000 --duration-s 30 [--llm-url http://localhost:9090]
+//        Keeps <concurrency> conversations in flight against /chat and reports throughput, latency and the
+//        peak number of LLM calls the pod had outstanding at once.
+public class ChatLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("usage: java loadtest/ChatLoadTest.java <llm|chat> [options]");
+            System.exit(2);
+        }
+        Map<String, String> options = parseOptions(Arrays.copyOfRange(args, 1, args.length));
+        switch (args[0]) {
+            case "llm":
+                runFakeLlm(Integer.parseInt(options.getOrDefault("port", "9090")), Long.parseLong(options.getOrDefault("delay-ms", "2000")));
+                break;
+            case "chat":
+                runChatLoad(options.getOrDefault("url", "http://localhost:8080"),
+                        Integer.parseInt(options.getOrDefault("concurrency", "500")),
+                        Integer.parseInt(options.getOrDefault("duration-s", "30")),
+                        options.get("llm-url"));
+                break;
+            default:
+                System.err.println("unknown mode: " + args[0]);
+                System.exit(2);
+        }
+    }
+
+    // ---- simulated LLM ----
+
+    private static final AtomicInteger inFlight = new AtomicInteger();
+    private static final AtomicInteger peakInFlight = new AtomicInteger();
+    private static final AtomicLong served = new AtomicLong();
+
+    private static void runFakeLlm(int port, long delayMillis) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 4096);
+        server.setExecutor(newExecutor());
+        server.createContext("/v1/chat/completions", exchange -> handleSlow(exchange, delayMillis, body ->
+                "{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":"
+                        + quote("{\"route\":\"TECH\",\"why\":\"load test\",\"answer\":\"Simulated answer.\",\"citations\":[],\"needs_clarification\":false}")
+                        + "}}]}"));
+        server.createContext("/v1/embeddings", exchange -> handleSlow(exchange, delayMillis, ChatLoadTest::fakeEmbeddings));
+        server.createContext("/stats", exchange -> respond(exchange, 200,
+                "{\"inFlight\":" + inFlight.get() + ",\"peakInFlight\":" + peakInFlight.get() + ",\"served\":" + served.get() + "}"));
+        server.createContext("/reset", exchange -> {
+            peakInFlight.set(inFlight.get());
+            served.set(0);
+            respond(exchange, 200, "{}");
+        });
+        server.start();
+        System.out.println("Simulated LLM listening on :" + port + " with " + delayMillis + " ms latency");
+    }
+
+    private interface BodyFactory {
+        String create(String requestBody);
+    }
+
+    private static void handleSlow(HttpExchange exchange, long delayMillis, BodyFactory factory) throws IOException {
+        int now = inFlight.incrementAndGet();
+        peakInFlight.accumulateAndGet(now, Math::max);
+        try {
+            String requestBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            Thread.sleep(delayMillis);
+            respond(exchange, 200, factory.create(requestBody));
+            served.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 500, "{}");
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    // Deterministic 256-dim vector per input string; inputs are the strings of the top-level "input" array.
+    private static String fakeEmbeddings(String requestBody) {
+        List<String> inputs = new ArrayList<>();
+        int start = requestBody.indexOf("\"input\"");
+        int i = start < 0 ? requestBody.length() : requestBody.indexOf('[', start) + 1;
+        StringBuilder current = null;
+        for (; i < requestBody.length(); i++) {
+            char c = requestBody.charAt(i);
+            if (current == null) {
+                if (c == '"') {
+                    current = new StringBuilder();
+                } else if (c == ']') {
+                    break;
+                }
+            } else if (c == '\\' && i + 1 < requestBody.length()) {
+                current.append(requestBody.charAt(++i));
+            } else if (c == '"') {
+                inputs.add(current.toString());
+                current = null;
+            } else {
+                current.append(c);
+            }
+        }
+
+        StringBuilder json = new StringBuilder("{\"data\":[");
+        for (int n = 0; n < inputs.size(); n++) {
+            Random random = new Random(inputs.get(n).hashCode());
+            json.append(n == 0 ? "" : ",").append("{\"index\":").append(n).append(",\"embedding\":[");
+            for (int d = 0; d < 256; d++) {
+                json.append(d == 0 ? "" : ",").append((float) random.nextGaussian());
+            }
+            json.append("]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    // ---- load generator ----
+
+    private static void runChatLoad(String url, int concurrency, int durationSeconds, String llmUrl) throws Exception {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .executor(newExecutor())
+                .build();
+        if (llmUrl != null) {
+            client.send(HttpRequest.newBuilder(URI.create(llmUrl + "/reset")).build(), HttpResponse.BodyHandlers.ofString());
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        AtomicLong errors = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        long started = System.nanoTime();
+
+        for (int w = 0; w < concurrency; w++) {
+            int worker = w;
+            Thread thread = new Thread(() -> {
+                int turn = 0;
+                while (System.nanoTime() < deadline) {
+                    String body = "{\"conversationId\":\"load-" + worker + "\",\"message\":\"How do I verify webhook signatures? (" + turn++ + ")\"}";
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(url + "/chat"))
+                            .header("Content-Type", "application/json")
+                            .timeout(Duration.ofMinutes(5))
+                            .POST(HttpRequest.BodyPublishers.ofString(body))
+                            .build();
+                    long start = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                        if (response.statusCode() == 200) {
+                            latencies.add(System.nanoTime() - start);
+                        } else {
+                            errors.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            }, "load-" + w);
+            thread.setDaemon(true);
+            thread.start();
+            workers.add(thread);
+        }
+        for (Thread thread : workers) {
+            thread.join();
+        }
+        double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        System.out.printf(Locale.ROOT, "concurrency=%d completed=%d errors=%d throughput=%.1f req/s p50=%d ms p99=%d ms%n",
+                concurrency, sorted.size(), errors.get(), sorted.size() / elapsedSeconds, percentile(sorted, 0.50), percentile(sorted, 0.99));
+        if (llmUrl != null) {
+            String stats = client.send(HttpRequest.newBuilder(URI.create(llmUrl + "/stats")).build(), HttpResponse.BodyHandlers.ofString()).body();
+            System.out.println("llm " + stats);
+        }
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(sorted.get(Math.min(sorted.size() - 1, (int) (p * sorted.size()))));
+    }
+
+    // ---- helpers ----
+
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String quote(String text) {
+        return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,36 @@
+#!/usr/bin/env bash
+# Compares platform-thread and virtual-thread request handling against a simulated slow LLM.
+# Requires a Java 21 JDK on PATH. Usage: loadtest/run.sh [concurrency] [duration-s] [llm-delay-ms]
+set -euo pipefail
+cd "$(dirname "$0")/.."
+
+CONCURRENCY=${1:-1000}
+DURATION=${2:-30}
+DELAY_MS=${3:-2000}
+LLM_PORT=9090
+APP_PORT=8080
+
+mvn -B -q -Pjava21 -DskipTests package
+JAR=$(ls target/multi-agent-support-ai-*.jar | head -1)
+
+java loadtest/ChatLoadTest.java llm --port "$LLM_PORT" --delay-ms "$DELAY_MS" &
+LLM_PID=$!
+trap 'kill $LLM_PID 2>/dev/null || true' EXIT
+sleep 2
+
+for VIRTUAL in false true; do
+  echo "=== spring.threads.virtual.enabled=$VIRTUAL ==="
+  OPENAI_API_KEY=loadtest OPENAI_BASE_URL="http://localhost:$LLM_PORT/v1" \
+    java --add-modules jdk.incubator.vector -jar "$JAR" \
+      --server.port="$APP_PORT" \
+      --spring.threads.virtual.enabled="$VIRTUAL" \
+      --retrieval.embedding-index.path="$(mktemp -d)/embedding-index.bin" > "target/loadtest-app-$VIRTUAL.log" 2>&1 &
+  APP_PID=$!
+  until curl -s -o /dev/null "http://localhost:$APP_PORT/stats"; do sleep 1; done
+
+  java loadtest/ChatLoadTest.java chat --url "http://localhost:$APP_PORT" \
+    --concurrency "$CONCURRENCY" --duration-s "$DURATION" --llm-url "http://localhost:$LLM_PORT"
+
+  kill "$APP_PID"
+  wait "$APP_PID" 2>/dev/null || true
+done
@@ -0,0 +1,58 @@
+package com.example.multiagent.retrieval;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class SimilarityKernelBenchmark {
+
+    @Param({"384", "768", "1536"})
+    private int dimension;
+
+    @Param({"scalar", "simd"})
+    private String kernelName;
+
+    private SimilarityKernel kernel;
+    private float[] query;
+    private float[] vector;
+    private byte[] codesA;
+    private byte[] codesB;
+
+    @Setup
+    public void setUp() {
+        kernel = SimilarityKernel.create(kernelName);
+        Random random = new Random(42);
+        query = new float[dimension];
+        vector = new float[dimension];
+        codesA = new byte[dimension];
+        codesB = new byte[dimension];
+        for (int i = 0; i < dimension; i++) {
+            query[i] = (float) random.nextGaussian();
+            vector[i] = (float) random.nextGaussian();
+            codesA[i] = (byte) (random.nextInt(255) - 127);
+            codesB[i] = (byte) (random.nextInt(255) - 127);
+        }
+    }
+
+    @Benchmark
+    public float floatDot() {
+        return kernel.dot(query, 0, vector, 0, dimension);
+    }
+
+    @Benchmark
+    public float floatByteDot() {
+        return kernel.dot(query, 0, codesA, 0, dimension);
+    }
+
+    @Benchmark
+    public int byteDot() {
+        return kernel.dot(codesA, 0, codesB, 0, dimension);
+    }
+}
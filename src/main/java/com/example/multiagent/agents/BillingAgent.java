@@ -3,34 +3,54 @@ package com.example.multiagent.agents;
 import com.example.multiagent.llm.LlmClient;
 import com.example.multiagent.llm.Message;
 import com.example.multiagent.llm.OpenAiClient;
+import com.example.multiagent.storage.ConversationHistory;
 import com.example.multiagent.tools.BillingTools;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
 
 @Component
 public class BillingAgent {
+    private static final String SYSTEM_PROMPT = "You are a Billing Support Agent. Help users with billing questions, refunds, subscriptions, and plans. " +
+            "Ask for missing information (email, orderId, purchaseDate, paymentMethod) when needed. " +
+            "Use the provided tools to look up information and process refunds. " +
+            "Be friendly, professional, and clear.";
+
     private final LlmClient llmClient;
     private final BillingTools billingTools;
+    private final PromptBudgeter promptBudgeter;
+    private final int promptBudget;
+    private final int maxHistory;
     private final ObjectMapper objectMapper;
 
     @Autowired
-    public BillingAgent(LlmClient llmClient, BillingTools billingTools) {
+    public BillingAgent(
+            LlmClient llmClient,
+            BillingTools billingTools,
+            PromptBudgeter promptBudgeter,
+            @Value("${agents.billing.prompt-budget:4000}") int promptBudget,
+            @Value("${agents.billing.max-history:10}") int maxHistory) {
         this.llmClient = llmClient;
         this.billingTools = billingTools;
+        this.promptBudgeter = promptBudgeter;
+        this.promptBudget = promptBudget;
+        this.maxHistory = Math.max(0, maxHistory);
         this.objectMapper = new ObjectMapper();
     }
 
     public BillingAgentResult answer(List<Message> history, String userMessage) {
-        List<Message> messages = buildMessages(history, userMessage);
+        PromptBudgeter.Allocation allocation = allocate(history, userMessage);
+        List<Message> messages = buildMessages(allocation, userMessage);
         List<OpenAiClient.ToolDefinition> tools = createToolDefinitions();
 
         int maxIterations = 5;
         String toolUsed = null;
         Map<String, Object> meta = new HashMap<>();
+        meta.put("prompt", allocation.toMap());
 
         for (int i = 0; i < maxIterations; i++) {
             LlmClient.ChatCompletionResult result = llmClient.chatCompletionWithTools(messages, tools);
@@ -57,21 +77,20 @@ public class BillingAgent {
         return new BillingAgentResult("I've processed your request. Please let me know if you need anything else.", toolUsed, meta);
     }
 
-    private List<Message> buildMessages(List<Message> history, String userMessage) {
+    // Recent history, newest first, fills whatever the system prompt and the question leave of the token budget.
+    // The budget covers the initial prompt; tool results added during the loop come on top of it.
+    private PromptBudgeter.Allocation allocate(List<Message> history, String userMessage) {
+        List<Message> required = List.of(new Message("system", SYSTEM_PROMPT), new Message("user", userMessage));
+        List<Message> recentHistory = ConversationHistory.recent(history, maxHistory);
+        return promptBudgeter.allocate("billing", promptBudget, required, Collections.emptyList(), recentHistory);
+    }
+
+    private List<Message> buildMessages(PromptBudgeter.Allocation allocation, String userMessage) {
         List<Message> messages = new ArrayList<>();
-        
-        String systemPrompt = "You are a Billing Support Agent. Help users with billing questions, refunds, subscriptions, and plans. " +
-                "Ask for missing information (email, orderId, purchaseDate, paymentMethod) when needed. " +
-                "Use the provided tools to look up information and process refunds. " +
-                "Be friendly, professional, and clear.";
-        
-        messages.add(new Message("system", systemPrompt));
-
-        // Add conversation history (last 10 messages for context)
-        int historySize = Math.min(history.size(), 10);
-        for (int i = Math.max(0, history.size() - historySize); i < history.size(); i++) {
-            messages.add(history.get(i));
-        }
+        messages.add(new Message("system", SYSTEM_PROMPT));
+
+        // Add conversation history (most recent messages that fit the budget)
+        messages.addAll(allocation.getHistory());
 
         messages.add(new Message("user", userMessage));
         return messages;
@@ -0,0 +1,52 @@
+package com.example.multiagent.agents;
+
+import com.example.multiagent.llm.LlmClient;
+import com.example.multiagent.llm.Message;
+import com.example.multiagent.storage.InMemoryConversationStore;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Folds older conversation turns into a running summary for InMemoryConversationStore's background compaction
+// (registers itself with the store once constructed).
+// Each call extends the previous summary with the newly folded turns, so a summary is never rebuilt from scratch.
+@Component
+public class ConversationSummarizer {
+    private static final String SYSTEM_PROMPT = "You maintain a running summary of a customer support conversation. " +
+            "Merge the new turns into the current summary and return only the updated summary, in at most 150 words. " +
+            "Keep every detail a support agent may need later: email addresses, order IDs, plans, purchase dates, payment methods, " +
+            "refund case IDs, the technical problem and what has been tried, and any question still open. Drop greetings and small talk.";
+
+    private final LlmClient llmClient;
+    private final InMemoryConversationStore conversationStore;
+
+    @Autowired
+    public ConversationSummarizer(LlmClient llmClient, InMemoryConversationStore conversationStore) {
+        this.llmClient = llmClient;
+        this.conversationStore = conversationStore;
+    }
+
+    // Until this runs (and when no summarizer is wired, as in tests) the store keeps the turns it would have folded.
+    @PostConstruct
+    public void register() {
+        conversationStore.setSummarizer(this::summarize);
+    }
+
+    public String summarize(String previousSummary, List<Message> turns) {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("Current summary:\n").append(previousSummary == null ? "(none)" : previousSummary).append("\n\n");
+        prompt.append("New turns:\n");
+        for (Message turn : turns) {
+            prompt.append(turn.getRole().toUpperCase(Locale.ROOT)).append(": ").append(turn.getContent()).append("\n");
+        }
+
+        List<Message> messages = new ArrayList<>();
+        messages.add(new Message("system", SYSTEM_PROMPT));
+        messages.add(new Message("user", prompt.toString()));
+        return llmClient.chatCompletion(messages).trim();
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.multiagent.agents;
+
+import com.example.multiagent.llm.Message;
+import com.example.multiagent.llm.Tokenizer;
+import com.example.multiagent.storage.ConversationHistory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Fits an agent's prompt into a token budget, spending it in priority order: the required messages (system
+// prompt and the question) always go in, then retrieved snippets in rank order, then history newest first.
+// The first snippet that does not fit is cut down if at least min-snippet-tokens remain, the rest are dropped;
+// history stops at the first message that does not fit, so what is kept is always a contiguous recent window
+// (after the conversation summary, which goes in ahead of the turns if it fits).
+@Component
+public class PromptBudgeter {
+    private final Tokenizer tokenizer;
+    private final int minSnippetTokens;
+    private final Map<String, AgentStats> stats = new ConcurrentHashMap<>();
+
+    @Autowired
+    public PromptBudgeter(Tokenizer tokenizer, @Value("${agents.prompt.min-snippet-tokens:64}") int minSnippetTokens) {
+        this.tokenizer = tokenizer;
+        this.minSnippetTokens = Math.max(1, minSnippetTokens);
+    }
+
+    // snippets are appended to the prompt as-is (no per-message overhead); history is chronological.
+    public Allocation allocate(String agent, int budget, List<Message> required, List<String> snippets, List<Message> history) {
+        int requiredTokens = Tokenizer.REPLY_PRIMING_TOKENS;
+        for (Message message : required) {
+            requiredTokens += tokenizer.count(message);
+        }
+        int remaining = budget - requiredTokens;
+
+        List<String> keptSnippets = new ArrayList<>();
+        int snippetTokens = 0;
+        boolean truncated = false;
+        for (String snippet : snippets) {
+            int tokens = tokenizer.count(snippet);
+            if (tokens <= remaining) {
+                keptSnippets.add(snippet);
+            } else if (remaining >= minSnippetTokens) {
+                snippet = tokenizer.truncate(snippet, remaining);
+                tokens = tokenizer.count(snippet);
+                keptSnippets.add(snippet);
+                truncated = true;
+            } else {
+                break;
+            }
+            snippetTokens += tokens;
+            remaining -= tokens;
+            if (truncated) {
+                break;
+            }
+        }
+
+        // A conversation summary stands in for many turns, so it is placed before the turns that follow it
+        List<Message> keptHistory = new ArrayList<>();
+        int historyTokens = 0;
+        Message summary = null;
+        int firstTurn = 0;
+        if (!history.isEmpty() && ConversationHistory.isSummary(history.get(0))) {
+            firstTurn = 1;
+            int tokens = tokenizer.count(history.get(0));
+            if (tokens <= remaining) {
+                summary = history.get(0);
+                historyTokens += tokens;
+                remaining -= tokens;
+            }
+        }
+        for (int i = history.size() - 1; i >= firstTurn; i--) {
+            int tokens = tokenizer.count(history.get(i));
+            if (tokens > remaining) {
+                break;
+            }
+            keptHistory.add(history.get(i));
+            historyTokens += tokens;
+            remaining -= tokens;
+        }
+        if (summary != null) {
+            keptHistory.add(summary);
+        }
+        Collections.reverse(keptHistory);
+
+        Allocation allocation = new Allocation(budget, requiredTokens, snippetTokens, historyTokens, keptSnippets, keptHistory,
+                snippets.size() - keptSnippets.size(), truncated, history.size() - keptHistory.size());
+        stats.computeIfAbsent(agent, name -> new AgentStats()).record(allocation);
+        return allocation;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("tokenizer", tokenizer.name());
+        for (Map.Entry<String, AgentStats> entry : stats.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return result;
+    }
+
+    public static class Allocation {
+        private final int budget;
+        private final int requiredTokens;
+        private final int snippetTokens;
+        private final int historyTokens;
+        private final List<String> snippets;
+        private final List<Message> history;
+        private final int snippetsDropped;
+        private final boolean snippetTruncated;
+        private final int historyDropped;
+
+        Allocation(int budget, int requiredTokens, int snippetTokens, int historyTokens, List<String> snippets, List<Message> history,
+                   int snippetsDropped, boolean snippetTruncated, int historyDropped) {
+            this.budget = budget;
+            this.requiredTokens = requiredTokens;
+            this.snippetTokens = snippetTokens;
+            this.historyTokens = historyTokens;
+            this.snippets = snippets;
+            this.history = history;
+            this.snippetsDropped = snippetsDropped;
+            this.snippetTruncated = snippetTruncated;
+            this.historyDropped = historyDropped;
+        }
+
+        public List<String> getSnippets() {
+            return snippets;
+        }
+
+        public List<Message> getHistory() {
+            return history;
+        }
+
+        public int getTotalTokens() {
+            return requiredTokens + snippetTokens + historyTokens;
+        }
+
+        // The required messages alone can exceed the budget; they are sent anyway.
+        public boolean isOverBudget() {
+            return getTotalTokens() > budget;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("budget", budget);
+            map.put("tokens", getTotalTokens());
+            map.put("requiredTokens", requiredTokens);
+            map.put("snippetTokens", snippetTokens);
+            map.put("historyTokens", historyTokens);
+            map.put("snippetsDropped", snippetsDropped);
+            map.put("snippetTruncated", snippetTruncated);
+            map.put("historyDropped", historyDropped);
+            return map;
+        }
+    }
+
+    private static class AgentStats {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong tokens = new AtomicLong();
+        private final AtomicLong maxTokens = new AtomicLong();
+        private final AtomicLong snippetsDropped = new AtomicLong();
+        private final AtomicLong snippetsTruncated = new AtomicLong();
+        private final AtomicLong historyDropped = new AtomicLong();
+        private final AtomicLong overBudget = new AtomicLong();
+
+        void record(Allocation allocation) {
+            requests.incrementAndGet();
+            tokens.addAndGet(allocation.getTotalTokens());
+            maxTokens.accumulateAndGet(allocation.getTotalTokens(), Math::max);
+            snippetsDropped.addAndGet(allocation.snippetsDropped);
+            if (allocation.snippetTruncated) {
+                snippetsTruncated.incrementAndGet();
+            }
+            historyDropped.addAndGet(allocation.historyDropped);
+            if (allocation.isOverBudget()) {
+                overBudget.incrementAndGet();
+            }
+        }
+
+        Map<String, Object> toMap() {
+            long count = requests.get();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("requests", count);
+            map.put("avgTokens", count == 0 ? 0 : tokens.get() / count);
+            map.put("maxTokens", maxTokens.get());
+            map.put("snippetsDropped", snippetsDropped.get());
+            map.put("snippetsTruncated", snippetsTruncated.get());
+            map.put("historyDropped", historyDropped.get());
+            map.put("overBudget", overBudget.get());
+            return map;
+        }
+    }
+}
@@ -3,81 +3,158 @@ package com.example.multiagent.agents;
 import com.example.multiagent.llm.LlmClient;
 import com.example.multiagent.llm.Message;
 import com.example.multiagent.retrieval.Chunk;
+import com.example.multiagent.storage.ConversationHistory;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
 import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Component
 public class TechAgent {
+    private static final String JSON_FORMAT = "{\"answer\":\"...\",\"citations\":[\"docId:sectionTitle\",...],\"needs_clarification\":true|false}";
+    private static final Pattern INLINE_CITATION = Pattern.compile("\\[([^\\[\\]:]+:[^\\[\\]]+)\\]");
+
     private final LlmClient llmClient;
+    private final PromptBudgeter promptBudgeter;
+    private final int promptBudget;
+    private final int maxHistory;
     private final ObjectMapper objectMapper;
 
     @Autowired
-    public TechAgent(LlmClient llmClient) {
+    public TechAgent(
+            LlmClient llmClient,
+            PromptBudgeter promptBudgeter,
+            @Value("${agents.tech.prompt-budget:6000}") int promptBudget,
+            @Value("${agents.tech.max-history:8}") int maxHistory) {
         this.llmClient = llmClient;
+        this.promptBudgeter = promptBudgeter;
+        this.promptBudget = promptBudget;
+        this.maxHistory = Math.max(0, maxHistory);
         this.objectMapper = new ObjectMapper();
     }
 
     public TechAgentResult answer(List<Message> history, String userMessage, List<Chunk> snippets) {
-        List<Message> messages = buildMessages(history, userMessage, snippets);
+        PromptBudgeter.Allocation allocation = allocate(history, userMessage, snippets, false);
+        // Decisions follow what the model is shown: snippets cut by the token budget do not count
+        boolean noSnippets = allocation.getSnippets().isEmpty();
+        List<Message> messages = buildMessages(allocation, userMessage, false);
         
         try {
             String response = llmClient.chatCompletion(messages);
-            return parseResponse(response, snippets);
+            return parseResponse(response, noSnippets).withPrompt(allocation);
         } catch (Exception e) {
             // Fallback: return plain text response
             return new TechAgentResult(
                 "I apologize, but I encountered an error processing your question. " +
-                (snippets.isEmpty() ? "No documentation was found to answer your question." : ""),
+                (noSnippets ? "No documentation was found to answer your question." : ""),
+                new ArrayList<>(),
+                noSnippets,
+                true
+            );
+        }
+    }
+
+    // Streaming variant: the model answers in plain text so tokens can be forwarded as they arrive;
+    // citations are taken from the inline [docId:sectionTitle] markers once the stream completes.
+    public TechAgentResult answerStream(List<Message> history, String userMessage, List<Chunk> snippets, Consumer<String> onToken) {
+        PromptBudgeter.Allocation allocation = allocate(history, userMessage, snippets, true);
+        boolean noSnippets = allocation.getSnippets().isEmpty();
+        List<Message> messages = buildMessages(allocation, userMessage, true);
+        boolean[] streamed = new boolean[1];
+
+        try {
+            String response = llmClient.chatCompletionStream(messages, token -> {
+                streamed[0] = true;
+                onToken.accept(token);
+            });
+            return parsePlainTextResponse(response, noSnippets).withPrompt(allocation);
+        } catch (Exception e) {
+            if (streamed[0]) {
+                throw e;
+            }
+            TechAgentResult fallback = new TechAgentResult(
+                "I apologize, but I encountered an error processing your question. " +
+                (noSnippets ? "No documentation was found to answer your question." : ""),
                 new ArrayList<>(),
-                snippets.isEmpty()
+                noSnippets,
+                true
             );
+            onToken.accept(fallback.getAnswer());
+            return fallback;
         }
     }
 
-    private List<Message> buildMessages(List<Message> history, String userMessage, List<Chunk> snippets) {
+    // The question and instructions always go in; snippets (rank order) and then recent history fill what is
+    // left of the token budget. The required prompt is sized with the longer no-snippets header, since the
+    // budget may leave no snippet in.
+    private PromptBudgeter.Allocation allocate(List<Message> history, String userMessage, List<Chunk> snippets, boolean plainText) {
+        List<String> snippetTexts = new ArrayList<>();
+        for (int i = 0; i < snippets.size(); i++) {
+            Chunk chunk = snippets.get(i);
+            snippetTexts.add("Snippet " + (i + 1) + " [" + chunk.getDocId() + ":" + chunk.getSectionTitle() + "]:\n"
+                    + chunk.getText() + "\n\n");
+        }
+        List<Message> required = List.of(
+                new Message("system", systemPrompt(plainText)),
+                new Message("user", userPrompt(userMessage, true, Collections.emptyList(), plainText)));
+        return promptBudgeter.allocate("tech", promptBudget, required, snippetTexts, promptHistory(history));
+    }
+
+    // The window of history a prompt can draw on; the budget may include less of it, but never anything older.
+    public List<Message> promptHistory(List<Message> history) {
+        return ConversationHistory.recent(history, maxHistory);
+    }
+
+    private List<Message> buildMessages(PromptBudgeter.Allocation allocation, String userMessage, boolean plainText) {
         List<Message> messages = new ArrayList<>();
-        
-        String systemPrompt = "You are a Technical Specialist. Answer questions ONLY using the provided documentation snippets. " +
-                "If the answer is not present in the documentation, explicitly state that the docs do not cover this topic and ask a clarifying question. " +
-                "Do NOT guess or make up information. Always include citations in the format [docId:sectionTitle] for each snippet you use. " +
-                "Respond with valid JSON only in this format: {\"answer\":\"your answer\",\"citations\":[\"docId:sectionTitle\",...],\"needs_clarification\":true|false}";
-        
-        messages.add(new Message("system", systemPrompt));
+        messages.add(new Message("system", systemPrompt(plainText)));
 
         // Add recent conversation history
-        int historySize = Math.min(history.size(), 8);
-        for (int i = Math.max(0, history.size() - historySize); i < history.size(); i++) {
-            messages.add(history.get(i));
-        }
+        messages.addAll(allocation.getHistory());
+
+        messages.add(new Message("user", userPrompt(userMessage, allocation.getSnippets().isEmpty(), allocation.getSnippets(), plainText)));
+        return messages;
+    }
+
+    private static String systemPrompt(boolean plainText) {
+        return "You are a Technical Specialist. Answer questions ONLY using the provided documentation snippets. " +
+                "If the answer is not present in the documentation, explicitly state that the docs do not cover this topic and ask a clarifying question. " +
+                "Do NOT guess or make up information. Always include citations in the format [docId:sectionTitle] for each snippet you use. " +
+                (plainText
+                        ? "Respond in plain text (no JSON), placing each citation inline right after the statement it supports."
+                        : "Respond with valid JSON only in this format: {\"answer\":\"your answer\",\"citations\":[\"docId:sectionTitle\",...],\"needs_clarification\":true|false}");
+    }
 
-        // Build user message with snippets
+    // Build user message with snippets
+    private static String userPrompt(String userMessage, boolean noSnippets, List<String> snippetTexts, boolean plainText) {
         StringBuilder userPrompt = new StringBuilder();
         userPrompt.append("User question: ").append(userMessage).append("\n\n");
         
-        if (snippets.isEmpty()) {
+        if (noSnippets) {
             userPrompt.append("No relevant documentation snippets were found for this question.\n");
         } else {
             userPrompt.append("Relevant documentation snippets:\n\n");
-            for (int i = 0; i < snippets.size(); i++) {
-                Chunk chunk = snippets.get(i);
-                userPrompt.append("Snippet ").append(i + 1).append(" [").append(chunk.getDocId()).append(":")
-                          .append(chunk.getSectionTitle()).append("]:\n");
-                userPrompt.append(chunk.getText()).append("\n\n");
+            for (String snippet : snippetTexts) {
+                userPrompt.append(snippet);
             }
         }
         
-        userPrompt.append("Respond with JSON: {\"answer\":\"...\",\"citations\":[\"docId:sectionTitle\",...],\"needs_clarification\":true|false}");
-        
-        messages.add(new Message("user", userPrompt.toString()));
-        return messages;
+        if (plainText) {
+            userPrompt.append("Respond in plain text with inline [docId:sectionTitle] citations.");
+        } else {
+            userPrompt.append("Respond with JSON: ").append(JSON_FORMAT);
+        }
+        return userPrompt.toString();
     }
 
-    private TechAgentResult parseResponse(String response, List<Chunk> snippets) {
+    private TechAgentResult parseResponse(String response, boolean noSnippets) {
         try {
             // Try to extract JSON
             String jsonStr = response.trim();
@@ -100,28 +177,48 @@ public class TechAgent {
             }
             
             boolean needsClarification = json.has("needs_clarification") && json.get("needs_clarification").asBoolean(false);
-            return new TechAgentResult(answer, citations, needsClarification || snippets.isEmpty());
+            return new TechAgentResult(answer, citations, needsClarification || noSnippets);
         } catch (Exception e) {
             // Fallback: check if response mentions docs don't cover it
-            String lowerResponse = response.toLowerCase(Locale.ROOT);
-            boolean docsCoverIt = !snippets.isEmpty()
-                    && !lowerResponse.contains("don't cover")
-                    && !lowerResponse.contains("doesn't cover")
-                    && !lowerResponse.contains("not found");
-            
-            return new TechAgentResult(response, new ArrayList<>(), !docsCoverIt);
+            return new TechAgentResult(response, new ArrayList<>(), !docsCoverIt(response, noSnippets));
         }
     }
 
+    private TechAgentResult parsePlainTextResponse(String response, boolean noSnippets) {
+        Set<String> citations = new LinkedHashSet<>();
+        Matcher matcher = INLINE_CITATION.matcher(response);
+        while (matcher.find()) {
+            citations.add(matcher.group(1).trim());
+        }
+        return new TechAgentResult(response, new ArrayList<>(citations), !docsCoverIt(response, noSnippets));
+    }
+
+    private boolean docsCoverIt(String response, boolean noSnippets) {
+        String lowerResponse = response.toLowerCase(Locale.ROOT);
+        return !noSnippets
+                && !lowerResponse.contains("don't cover")
+                && !lowerResponse.contains("doesn't cover")
+                && !lowerResponse.contains("do not cover")
+                && !lowerResponse.contains("not found");
+    }
+
     public static class TechAgentResult {
         private String answer;
         private List<String> citations;
         private boolean needsClarification;
+        private boolean failed;
+        private PromptBudgeter.Allocation prompt;
 
         public TechAgentResult(String answer, List<String> citations, boolean needsClarification) {
+            this(answer, citations, needsClarification, false);
+        }
+
+        // failed marks the apology returned when the LLM call itself failed.
+        public TechAgentResult(String answer, List<String> citations, boolean needsClarification, boolean failed) {
             this.answer = answer;
             this.citations = citations;
             this.needsClarification = needsClarification;
+            this.failed = failed;
         }
 
         public String getAnswer() {
@@ -135,5 +232,19 @@ public class TechAgent {
         public boolean needsClarification() {
             return needsClarification;
         }
+
+        public boolean isFailed() {
+            return failed;
+        }
+
+        // Token accounting of the prompt this answer was generated from.
+        public PromptBudgeter.Allocation getPrompt() {
+            return prompt;
+        }
+
+        TechAgentResult withPrompt(PromptBudgeter.Allocation prompt) {
+            this.prompt = prompt;
+            return this;
+        }
     }
 }
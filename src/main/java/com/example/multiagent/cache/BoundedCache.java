@@ -0,0 +1,146 @@
+package com.example.multiagent.cache;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongBiFunction;
+
+// LRU cache bounded by entry count and total weight (e.g. estimated bytes), with a per-entry TTL.
+// A single lock guards the map; every operation is O(1), so contention stays low.
+public class BoundedCache<K, V> {
+    private final int maxEntries;
+    private final long maxWeight;
+    private final long ttlNanos;
+    private final ToLongBiFunction<K, V> weigher;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalWeight = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    // maxEntries <= 0 disables the cache; ttl of zero means entries never expire.
+    public BoundedCache(int maxEntries, long maxWeight, Duration ttl, ToLongBiFunction<K, V> weigher) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.ttlNanos = ttl.toNanos();
+        this.weigher = weigher;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    public V get(K key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (isExpired(entry, System.nanoTime())) {
+                remove(key);
+                expirations.incrementAndGet();
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.value;
+        }
+    }
+
+    public void put(K key, V value) {
+        if (!isEnabled()) {
+            return;
+        }
+        long weight = weigher.applyAsLong(key, value);
+        if (maxWeight > 0 && weight > maxWeight) {
+            return;
+        }
+        synchronized (entries) {
+            remove(key);
+            entries.put(key, new Entry<>(value, weight, System.nanoTime()));
+            totalWeight += weight;
+            evictIfNeeded();
+        }
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            totalWeight = 0;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+            stats.put("weight", totalWeight);
+        }
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        stats.put("evictions", evictions.get());
+        stats.put("expirations", expirations.get());
+        return stats;
+    }
+
+    private void evictIfNeeded() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        while (it.hasNext() && (entries.size() > maxEntries || (maxWeight > 0 && totalWeight > maxWeight))) {
+            Map.Entry<K, Entry<V>> eldest = it.next();
+            it.remove();
+            totalWeight -= eldest.getValue().weight;
+            if (isExpired(eldest.getValue(), now)) {
+                expirations.incrementAndGet();
+            } else {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void remove(K key) {
+        Entry<V> removed = entries.remove(key);
+        if (removed != null) {
+            totalWeight -= removed.weight;
+        }
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        return ttlNanos > 0 && now - entry.createdNanos > ttlNanos;
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long weight;
+        final long createdNanos;
+
+        Entry(V value, long weight, long createdNanos) {
+            this.value = value;
+            this.weight = weight;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.multiagent.cache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cache keyed on an L2-normalised embedding plus an exact context key (e.g. the retrieved chunk ids).
+// A lookup hits when an entry has the same context key and cosine similarity >= minSimilarity.
+// Entries are grouped by context key, so only a handful of vectors are compared per lookup.
+// LRU bounded by entry count, with a per-entry TTL; entries can be invalidated by tag (e.g. docId).
+public class SemanticCache<V> {
+    private final int maxEntries;
+    private final double minSimilarity;
+    private final long ttlNanos;
+    private final LinkedHashMap<Long, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, List<Entry<V>>> byContext = new HashMap<>();
+    private long nextId = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong sampled = new AtomicLong();
+    private final AtomicLong falseHits = new AtomicLong();
+
+    // maxEntries <= 0 disables the cache; ttl of zero means entries never expire.
+    public SemanticCache(int maxEntries, double minSimilarity, Duration ttl) {
+        this.maxEntries = maxEntries;
+        this.minSimilarity = minSimilarity;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    public V get(float[] vector, String contextKey) {
+        if (!isEnabled()) {
+            return null;
+        }
+        synchronized (entries) {
+            List<Entry<V>> candidates = byContext.get(contextKey);
+            Entry<V> best = null;
+            double bestSimilarity = minSimilarity;
+            if (candidates != null) {
+                long now = System.nanoTime();
+                for (Entry<V> candidate : new ArrayList<>(candidates)) {
+                    if (isExpired(candidate, now)) {
+                        remove(candidate);
+                        expirations.incrementAndGet();
+                        continue;
+                    }
+                    double similarity = dot(vector, candidate.vector);
+                    if (similarity >= bestSimilarity) {
+                        bestSimilarity = similarity;
+                        best = candidate;
+                    }
+                }
+            }
+            if (best == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            entries.get(best.id); // refresh LRU position
+            hits.incrementAndGet();
+            return best.value;
+        }
+    }
+
+    public void put(float[] vector, String contextKey, Set<String> tags, V value) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (entries) {
+            Entry<V> entry = new Entry<>(nextId++, vector, contextKey, tags, value, System.nanoTime());
+            entries.put(entry.id, entry);
+            byContext.computeIfAbsent(contextKey, k -> new ArrayList<>()).add(entry);
+
+            Iterator<Entry<V>> it = entries.values().iterator();
+            long now = System.nanoTime();
+            while (entries.size() > maxEntries && it.hasNext()) {
+                Entry<V> eldest = it.next();
+                it.remove();
+                removeFromContext(eldest);
+                if (isExpired(eldest, now)) {
+                    expirations.incrementAndGet();
+                } else {
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    // Drops every entry carrying the tag; returns the number removed.
+    public int invalidateTag(String tag) {
+        synchronized (entries) {
+            int removed = 0;
+            for (Entry<V> entry : new ArrayList<>(entries.values())) {
+                if (entry.tags.contains(tag)) {
+                    remove(entry);
+                    removed++;
+                }
+            }
+            invalidations.addAndGet(removed);
+            return removed;
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            invalidations.addAndGet(entries.size());
+            entries.clear();
+            byContext.clear();
+        }
+    }
+
+    // Outcome of re-computing a sampled hit: false when the fresh value disagreed with the cached one.
+    public void recordSample(boolean agreed) {
+        sampled.incrementAndGet();
+        if (!agreed) {
+            falseHits.incrementAndGet();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        long sampledCount = sampled.get();
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+        }
+        stats.put("minSimilarity", minSimilarity);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        stats.put("evictions", evictions.get());
+        stats.put("expirations", expirations.get());
+        stats.put("invalidations", invalidations.get());
+        stats.put("sampledHits", sampledCount);
+        stats.put("falseHits", falseHits.get());
+        stats.put("falseHitRate", sampledCount == 0 ? 0.0 : (double) falseHits.get() / sampledCount);
+        return stats;
+    }
+
+    private void remove(Entry<V> entry) {
+        entries.remove(entry.id);
+        removeFromContext(entry);
+    }
+
+    private void removeFromContext(Entry<V> entry) {
+        List<Entry<V>> group = byContext.get(entry.contextKey);
+        if (group != null) {
+            group.remove(entry);
+            if (group.isEmpty()) {
+                byContext.remove(entry.contextKey);
+            }
+        }
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        return ttlNanos > 0 && now - entry.createdNanos > ttlNanos;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return -1.0;
+        }
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static final class Entry<V> {
+        final long id;
+        final float[] vector;
+        final String contextKey;
+        final Set<String> tags;
+        final V value;
+        final long createdNanos;
+
+        Entry(long id, float[] vector, String contextKey, Set<String> tags, V value, long createdNanos) {
+            this.id = id;
+            this.vector = vector;
+            this.contextKey = contextKey;
+            this.tags = tags;
+            this.value = value;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.multiagent.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class ExecutorConfig {
+
+    // Runs blocking in-process work: SSE streams, hybrid retrieval fan-out, speculative retrieval.
+    // With spring.threads.virtual.enabled=true on Java 21+ this is a virtual-thread-per-task executor;
+    // Spring Boot then also runs Tomcat request handling on virtual threads. On platform threads it is bounded
+    // to llm.executor.max-threads plus a queue of llm.executor.queue-capacity tasks, and rejects beyond that
+    // (RejectedExecutionException) rather than growing without limit.
+    @Bean(name = "llmExecutor", destroyMethod = "shutdownNow")
+    public ExecutorService llmExecutor(
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            @Value("${llm.executor.max-threads:200}") int maxThreads,
+            @Value("${llm.executor.queue-capacity:1000}") int queueCapacity) {
+        if (virtualThreads) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null) {
+                System.out.println("Using virtual threads for LLM calls");
+                return virtual;
+            }
+            System.err.println("spring.threads.virtual.enabled=true but virtual threads need Java 21+, using platform threads");
+        }
+
+        int threads = Math.max(1, maxThreads);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), daemonThreads("llm-"), new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    // Completes the HttpClient's async responses. Kept apart from llmExecutor on platform threads: these handlers
+    // are short and non-blocking, and queueing them behind llmExecutor tasks that block waiting for a response
+    // would deadlock a saturated pool. Threads are cached, like the HttpClient's own default executor.
+    @Bean(name = "llmHttpExecutor", destroyMethod = "shutdownNow")
+    public ExecutorService llmHttpExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        if (virtualThreads) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null) {
+                return virtual;
+            }
+        }
+        return Executors.newCachedThreadPool(daemonThreads("llm-http-"));
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Looked up reflectively so the default build still targets Java 17.
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
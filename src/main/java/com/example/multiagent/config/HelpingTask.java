@@ -0,0 +1,45 @@
+package com.example.multiagent.config;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+// A task forked onto the bounded llmExecutor that the thread waiting for it runs itself if no pool thread has
+// picked it up yet (or the pool rejected it). A pool thread waiting on another pool task therefore never
+// deadlocks a saturated pool; it just loses the parallelism.
+public class HelpingTask<T> extends FutureTask<T> {
+
+    private HelpingTask(Callable<T> callable) {
+        super(callable);
+    }
+
+    public static <T> HelpingTask<T> fork(Executor executor, Callable<T> callable) {
+        HelpingTask<T> task = new HelpingTask<>(callable);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // saturated: join() runs it on the caller
+        }
+        return task;
+    }
+
+    // The task's result; unchecked exceptions from the task are rethrown as they are.
+    public T join() {
+        run(); // no-op if a pool thread already started (or finished) it
+        try {
+            return get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CompletionException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for a forked task");
+        }
+    }
+}
@@ -2,24 +2,37 @@ package com.example.multiagent.controller;
 
 import com.example.multiagent.orchestrator.ConversationOrchestrator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 public class ChatController {
+    private static final long STREAM_TIMEOUT_MILLIS = 180_000;
+
     private final ConversationOrchestrator orchestrator;
+    private final ExecutorService streamExecutor;
 
     @Autowired
-    public ChatController(ConversationOrchestrator orchestrator) {
+    public ChatController(ConversationOrchestrator orchestrator, @Qualifier("llmExecutor") ExecutorService streamExecutor) {
         this.orchestrator = orchestrator;
+        this.streamExecutor = streamExecutor;
     }
 
     @PostMapping("/chat")
     public ResponseEntity<ChatResponse> chat(@RequestBody ChatRequest request) {
         try {
-            if (request.getConversationId() == null || request.getMessage() == null || 
-                request.getConversationId().trim().isEmpty() || request.getMessage().trim().isEmpty()) {
+            if (!isValid(request)) {
                 return ResponseEntity.badRequest().build();
             }
 
@@ -33,4 +46,65 @@ public class ChatController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
         }
     }
+
+    // Server-Sent Events: "token" events ({"text": "..."}) as the answer is generated,
+    // then one "done" event with the full ChatResponse, or an "error" event.
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> chatStream(@RequestBody ChatRequest request) {
+        if (!isValid(request)) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MILLIS);
+        long start = System.nanoTime();
+        try {
+            streamExecutor.execute(() -> stream(emitter, request, start));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    private void stream(SseEmitter emitter, ChatRequest request, long start) {
+        long[] firstTokenNanos = {-1};
+        try {
+            ChatResponse response = orchestrator.handleStream(request.getConversationId(), request.getMessage(), token -> {
+                if (firstTokenNanos[0] < 0) {
+                    firstTokenNanos[0] = System.nanoTime();
+                }
+                send(emitter, "token", Map.of("text", token));
+            });
+
+            Map<String, Object> meta = response.getMeta() == null ? new HashMap<>() : new HashMap<>(response.getMeta());
+            if (firstTokenNanos[0] >= 0) {
+                meta.put("timeToFirstTokenMs", (firstTokenNanos[0] - start) / 1_000_000);
+            }
+            meta.put("totalMs", (System.nanoTime() - start) / 1_000_000);
+            response.setMeta(meta);
+
+            send(emitter, "done", response);
+            emitter.complete();
+        } catch (Exception e) {
+            e.printStackTrace();
+            try {
+                send(emitter, "error", Map.of("error", "An error occurred: " + e.getMessage()));
+                emitter.complete();
+            } catch (Exception sendFailure) {
+                emitter.completeWithError(e);
+            }
+        }
+    }
+
+    private static boolean isValid(ChatRequest request) {
+        return request.getConversationId() != null && request.getMessage() != null &&
+                !request.getConversationId().trim().isEmpty() && !request.getMessage().trim().isEmpty();
+    }
+
+    private static void send(SseEmitter emitter, String event, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(event).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
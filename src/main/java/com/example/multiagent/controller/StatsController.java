@@ -0,0 +1,74 @@
+package com.example.multiagent.controller;
+
+import com.example.multiagent.agents.PromptBudgeter;
+import com.example.multiagent.llm.EmbeddingBatcher;
+import com.example.multiagent.orchestrator.ConversationOrchestrator;
+import com.example.multiagent.orchestrator.Router;
+import com.example.multiagent.retrieval.Retriever;
+import com.example.multiagent.storage.InMemoryConversationStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+public class StatsController {
+    private final Retriever retriever;
+    private final EmbeddingBatcher embeddingBatcher;
+    private final ConversationOrchestrator orchestrator;
+    private final Router router;
+    private final InMemoryConversationStore conversationStore;
+    private final PromptBudgeter promptBudgeter;
+
+    @Autowired
+    public StatsController(
+            Retriever retriever,
+            EmbeddingBatcher embeddingBatcher,
+            ConversationOrchestrator orchestrator,
+            Router router,
+            InMemoryConversationStore conversationStore,
+            PromptBudgeter promptBudgeter) {
+        this.retriever = retriever;
+        this.embeddingBatcher = embeddingBatcher;
+        this.orchestrator = orchestrator;
+        this.router = router;
+        this.conversationStore = conversationStore;
+        this.promptBudgeter = promptBudgeter;
+    }
+
+    @GetMapping("/stats")
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("retrieval", retriever.getStats());
+        stats.put("embeddingBatcher", embeddingBatcher.getStats());
+        stats.put("orchestrator", orchestrator.getStats());
+        stats.put("router", router.getStats());
+        stats.put("conversations", conversationStore.getStats());
+        stats.put("prompts", promptBudgeter.getStats());
+        return stats;
+    }
+
+    // Readiness probe. The service can answer as soon as the BM25 index is loaded, which happens before the web
+    // server starts, so this is 200 while vectors are still BUILDING or DEGRADED; requireVectors=true turns
+    // anything but READY into a 503 for callers that need vector retrieval.
+    @GetMapping("/ready")
+    public ResponseEntity<Map<String, Object>> ready(@RequestParam(defaultValue = "false") boolean requireVectors) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        boolean ready = !requireVectors || retriever.getIndexState() == Retriever.IndexState.READY;
+        body.put("status", ready ? "UP" : "OUT_OF_SERVICE");
+        body.put("index", retriever.getIndexStatus());
+        return ResponseEntity.status(ready ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(body);
+    }
+
+    // Replays the routing replay set through the LLM router and compares the local fast-path classifier with it.
+    @PostMapping("/stats/router/replay")
+    public Map<String, Object> routerReplay() {
+        return router.replay();
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.multiagent.llm;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Coalesces concurrent single-text embedding requests into one embeddings API call.
+// The first request opens a window; the batch is sent when the window closes or maxBatchSize is reached.
+@Component
+public class EmbeddingBatcher {
+    private final LlmClient llmClient;
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final BlockingQueue<PendingEmbedding> queue = new LinkedBlockingQueue<>();
+    private final Thread collector;
+    private volatile boolean running = true;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong apiInputs = new AtomicLong();
+    private final AtomicLong maxObservedBatch = new AtomicLong();
+
+    @Autowired
+    public EmbeddingBatcher(
+            LlmClient llmClient,
+            @Value("${llm.embedding-batch.enabled:true}") boolean enabled,
+            @Value("${llm.embedding-batch.window-ms:3}") long windowMillis,
+            @Value("${llm.embedding-batch.max-size:64}") int maxBatchSize) {
+        this.llmClient = llmClient;
+        this.enabled = enabled;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.collector = new Thread(this::collectLoop, "embedding-batch-collector");
+        this.collector.setDaemon(true);
+        if (enabled) {
+            this.collector.start();
+        }
+    }
+
+    public double[] embed(String text) {
+        return OpenAiClient.await(embedAsync(text));
+    }
+
+    public CompletableFuture<double[]> embedAsync(String text) {
+        requests.incrementAndGet();
+        if (!enabled) {
+            batches.incrementAndGet();
+            apiInputs.incrementAndGet();
+            return llmClient.embedTextsAsync(List.of(text)).thenApply(vectors -> vectors.get(0));
+        }
+        PendingEmbedding pending = new PendingEmbedding(text);
+        queue.add(pending);
+        if (!running) {
+            failPending(); // raced with shutdown; nothing will collect it
+        }
+        return pending.future;
+    }
+
+    private void collectLoop() {
+        while (running) {
+            List<PendingEmbedding> batch = new ArrayList<>();
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                        break;
+                    }
+                    PendingEmbedding next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                send(batch);
+            } catch (InterruptedException e) {
+                fail(batch);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Non-blocking: the collector returns to gathering the next window while this batch is in flight.
+    private void send(List<PendingEmbedding> batch) {
+        // Identical texts in one window share a single API input.
+        Map<String, List<PendingEmbedding>> byText = new LinkedHashMap<>();
+        for (PendingEmbedding pending : batch) {
+            byText.computeIfAbsent(pending.text, k -> new ArrayList<>()).add(pending);
+        }
+        List<String> inputs = new ArrayList<>(byText.keySet());
+
+        batches.incrementAndGet();
+        apiInputs.addAndGet(inputs.size());
+        maxObservedBatch.accumulateAndGet(batch.size(), Math::max);
+
+        CompletableFuture<List<double[]>> call;
+        try {
+            call = llmClient.embedTextsAsync(inputs);
+        } catch (Exception e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((vectors, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                for (PendingEmbedding pending : batch) {
+                    pending.future.completeExceptionally(cause);
+                }
+                return;
+            }
+            for (int i = 0; i < inputs.size(); i++) {
+                for (PendingEmbedding pending : byText.get(inputs.get(i))) {
+                    pending.future.complete(vectors.get(i));
+                }
+            }
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long requestCount = requests.get();
+        long batchCount = batches.get();
+        stats.put("enabled", enabled);
+        stats.put("requests", requestCount);
+        stats.put("apiCalls", batchCount);
+        stats.put("apiInputs", apiInputs.get());
+        stats.put("avgBatchSize", batchCount == 0 ? 0.0 : (double) requestCount / batchCount);
+        stats.put("maxBatchSize", maxObservedBatch.get());
+        return stats;
+    }
+
+    // Requests still waiting for a window fail instead of leaving their callers blocked in embed().
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        collector.interrupt();
+        try {
+            collector.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failPending();
+    }
+
+    private void failPending() {
+        List<PendingEmbedding> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        fail(pending);
+    }
+
+    private static void fail(List<PendingEmbedding> batch) {
+        for (PendingEmbedding pending : batch) {
+            pending.future.completeExceptionally(new CancellationException("Embedding batcher shut down"));
+        }
+    }
+
+    private static class PendingEmbedding {
+        final String text;
+        final CompletableFuture<double[]> future = new CompletableFuture<>();
+
+        PendingEmbedding(String text) {
+            this.text = text;
+        }
+    }
+}
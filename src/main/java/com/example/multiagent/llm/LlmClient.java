@@ -3,38 +3,69 @@ package com.example.multiagent.llm;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
 
 @Component
 public class LlmClient {
     private final OpenAiClient openAiClient;
 
-    public LlmClient() {
-        this.openAiClient = new OpenAiClient();
+    @Autowired
+    public LlmClient(@Qualifier("llmHttpExecutor") ExecutorService executor) {
+        this.openAiClient = new OpenAiClient(executor);
     }
 
     public String chatCompletion(List<Message> messages) {
+        return OpenAiClient.await(chatCompletionAsync(messages));
+    }
+
+    public CompletableFuture<String> chatCompletionAsync(List<Message> messages) {
+        List<Map<String, String>> apiMessages = convertMessages(messages);
+        return openAiClient.chatCompletionAsync(apiMessages, null)
+                .thenApply(OpenAiClient.ChatCompletionResponse::getContent);
+    }
+
+    public String chatCompletionStream(List<Message> messages, Consumer<String> onToken) {
+        return OpenAiClient.await(chatCompletionStreamAsync(messages, onToken));
+    }
+
+    public CompletableFuture<String> chatCompletionStreamAsync(List<Message> messages, Consumer<String> onToken) {
         List<Map<String, String>> apiMessages = convertMessages(messages);
-        OpenAiClient.ChatCompletionResponse response = openAiClient.chatCompletion(apiMessages, null);
-        return response.getContent();
+        return openAiClient.chatCompletionStreamAsync(apiMessages, onToken);
     }
 
     public List<double[]> embedTexts(List<String> texts) {
-        return openAiClient.getEmbeddings(texts);
+        return OpenAiClient.await(embedTextsAsync(texts));
+    }
+
+    public CompletableFuture<List<double[]>> embedTextsAsync(List<String> texts) {
+        return openAiClient.getEmbeddingsAsync(texts);
+    }
+
+    public String getEmbeddingModel() {
+        return openAiClient.getEmbeddingModel();
     }
 
     public ChatCompletionResult chatCompletionWithTools(List<Message> messages, List<OpenAiClient.ToolDefinition> tools) {
+        return OpenAiClient.await(chatCompletionWithToolsAsync(messages, tools));
+    }
+
+    public CompletableFuture<ChatCompletionResult> chatCompletionWithToolsAsync(List<Message> messages, List<OpenAiClient.ToolDefinition> tools) {
         List<Map<String, String>> apiMessages = convertMessages(messages);
-        OpenAiClient.ChatCompletionResponse response = openAiClient.chatCompletion(apiMessages, tools);
-        
-        ChatCompletionResult result = new ChatCompletionResult();
-        result.setContent(response.getContent());
-        result.setToolCalls(response.getToolCalls());
-        return result;
+        return openAiClient.chatCompletionAsync(apiMessages, tools).thenApply(response -> {
+            ChatCompletionResult result = new ChatCompletionResult();
+            result.setContent(response.getContent());
+            result.setToolCalls(response.getToolCalls());
+            return result;
+        });
     }
 
     private List<Map<String, String>> convertMessages(List<Message> messages) {
@@ -3,19 +3,26 @@ package com.example.multiagent.llm;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
 
 public class OpenAiClient {
-    private static final String API_URL = "https://api.openai.com/v1/chat/completions";
-    private static final String EMBEDDINGS_API_URL = "https://api.openai.com/v1/embeddings";
+    private final String apiUrl;
+    private final String embeddingsApiUrl;
     private final String apiKey;
     private final String model;
     private final String embeddingModel;
@@ -23,12 +30,23 @@ public class OpenAiClient {
     private final ObjectMapper objectMapper;
 
     public OpenAiClient() {
+        this(null);
+    }
+
+    // Async responses complete on the given executor (the HttpClient default pool when null).
+    public OpenAiClient(Executor executor) {
+        String baseUrl = System.getenv().getOrDefault("OPENAI_BASE_URL", "https://api.openai.com/v1");
+        this.apiUrl = baseUrl + "/chat/completions";
+        this.embeddingsApiUrl = baseUrl + "/embeddings";
         this.apiKey = System.getenv("OPENAI_API_KEY");
         this.model = System.getenv().getOrDefault("OPENAI_MODEL", "gpt-4o-mini");
         this.embeddingModel = System.getenv().getOrDefault("OPENAI_EMBEDDING_MODEL", "text-embedding-3-small");
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(30))
-                .build();
+        HttpClient.Builder httpClientBuilder = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(30));
+        if (executor != null) {
+            httpClientBuilder.executor(executor);
+        }
+        this.httpClient = httpClientBuilder.build();
         this.objectMapper = new ObjectMapper();
         
         if (apiKey == null || apiKey.isEmpty()) {
@@ -37,6 +55,10 @@ public class OpenAiClient {
     }
 
     public ChatCompletionResponse chatCompletion(List<Map<String, String>> messages, List<ToolDefinition> tools) {
+        return await(chatCompletionAsync(messages, tools));
+    }
+
+    public CompletableFuture<ChatCompletionResponse> chatCompletionAsync(List<Map<String, String>> messages, List<ToolDefinition> tools) {
         try {
             Map<String, Object> requestBody = new HashMap<>();
             requestBody.put("model", model);
@@ -46,25 +68,51 @@ public class OpenAiClient {
                 requestBody.put("tool_choice", "auto");
             }
 
-            String jsonBody = objectMapper.writeValueAsString(requestBody);
+            HttpRequest request = buildRequest(apiUrl, objectMapper.writeValueAsString(requestBody));
+
+            CompletableFuture<ChatCompletionResponse> future = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                    .thenApply(response -> {
+                        if (response.statusCode() != 200) {
+                            throw new RuntimeException("OpenAI API error: " + response.statusCode() + " - " + response.body());
+                        }
+                        try {
+                            return parseResponse(response.body());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+            return withErrorPrefix(future, "Failed to call OpenAI API: ");
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(new RuntimeException("Failed to call OpenAI API: " + e.getMessage(), e));
+        }
+    }
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(API_URL))
-                    .header("Content-Type", "application/json")
-                    .header("Authorization", "Bearer " + apiKey)
-                    .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                    .timeout(Duration.ofSeconds(60))
-                    .build();
+    // Streams the completion ("stream": true) and passes each content delta to onToken as it arrives.
+    // The future completes with the full content once the provider sends [DONE].
+    public CompletableFuture<String> chatCompletionStreamAsync(List<Map<String, String>> messages, Consumer<String> onToken) {
+        try {
+            Map<String, Object> requestBody = new HashMap<>();
+            requestBody.put("model", model);
+            requestBody.put("messages", messages);
+            requestBody.put("stream", true);
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpRequest request = buildRequest(apiUrl, objectMapper.writeValueAsString(requestBody));
 
-            if (response.statusCode() != 200) {
-                throw new RuntimeException("OpenAI API error: " + response.statusCode() + " - " + response.body());
-            }
+            HttpResponse.BodyHandler<String> handler = responseInfo -> {
+                if (responseInfo.statusCode() != 200) {
+                    return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8), body -> {
+                        throw new RuntimeException("OpenAI API error: " + responseInfo.statusCode() + " - " + body);
+                    });
+                }
+                return HttpResponse.BodySubscribers.fromLineSubscriber(
+                        new StreamingLineSubscriber(onToken), StreamingLineSubscriber::getContent, StandardCharsets.UTF_8, null);
+            };
 
-            return parseResponse(response.body());
+            CompletableFuture<String> future = httpClient.sendAsync(request, handler)
+                    .thenApply(HttpResponse::body);
+            return withErrorPrefix(future, "Failed to call OpenAI API: ");
         } catch (Exception e) {
-            throw new RuntimeException("Failed to call OpenAI API: " + e.getMessage(), e);
+            return CompletableFuture.failedFuture(new RuntimeException("Failed to call OpenAI API: " + e.getMessage(), e));
         }
     }
 
@@ -73,69 +121,116 @@ public class OpenAiClient {
     }
 
     public List<double[]> getEmbeddings(List<String> inputs, String embeddingModel) {
+        return await(getEmbeddingsAsync(inputs, embeddingModel));
+    }
+
+    public CompletableFuture<List<double[]>> getEmbeddingsAsync(List<String> inputs) {
+        return getEmbeddingsAsync(inputs, embeddingModel);
+    }
+
+    public CompletableFuture<List<double[]>> getEmbeddingsAsync(List<String> inputs, String embeddingModel) {
         try {
             Map<String, Object> requestBody = new HashMap<>();
             requestBody.put("model", embeddingModel);
             requestBody.put("input", inputs);
 
-            String jsonBody = objectMapper.writeValueAsString(requestBody);
+            HttpRequest request = buildRequest(embeddingsApiUrl, objectMapper.writeValueAsString(requestBody));
+
+            CompletableFuture<List<double[]>> future = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                    .thenApply(response -> {
+                        if (response.statusCode() != 200) {
+                            throw new RuntimeException("OpenAI embeddings API error: " + response.statusCode() + " - " + response.body());
+                        }
+                        try {
+                            return parseEmbeddings(response.body(), inputs.size());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+            return withErrorPrefix(future, "Failed to fetch embeddings from OpenAI API: ");
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(new RuntimeException("Failed to fetch embeddings from OpenAI API: " + e.getMessage(), e));
+        }
+    }
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(EMBEDDINGS_API_URL))
-                    .header("Content-Type", "application/json")
-                    .header("Authorization", "Bearer " + apiKey)
-                    .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                    .timeout(Duration.ofSeconds(60))
-                    .build();
+    private HttpRequest buildRequest(String url, String jsonBody) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + apiKey)
+                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+                .timeout(Duration.ofSeconds(60))
+                .build();
+    }
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            if (response.statusCode() != 200) {
-                throw new RuntimeException("OpenAI embeddings API error: " + response.statusCode() + " - " + response.body());
-            }
+    private List<double[]> parseEmbeddings(String body, int inputCount) throws IOException {
+        JsonNode root = objectMapper.readTree(body);
+        JsonNode data = root.get("data");
+        if (data == null || !data.isArray()) {
+            throw new RuntimeException("Invalid embeddings response from OpenAI API");
+        }
 
-            JsonNode root = objectMapper.readTree(response.body());
-            JsonNode data = root.get("data");
-            if (data == null || !data.isArray()) {
-                throw new RuntimeException("Invalid embeddings response from OpenAI API");
+        double[][] embeddings = new double[inputCount][];
+        for (JsonNode item : data) {
+            int index = item.has("index") ? item.get("index").asInt() : -1;
+            JsonNode emb = item.get("embedding");
+            if (emb == null || !emb.isArray()) {
+                continue;
             }
 
-            double[][] embeddings = new double[inputs.size()][];
-            for (JsonNode item : data) {
-                int index = item.has("index") ? item.get("index").asInt() : -1;
-                JsonNode emb = item.get("embedding");
-                if (emb == null || !emb.isArray()) {
-                    continue;
-                }
+            double[] vector = new double[emb.size()];
+            for (int i = 0; i < emb.size(); i++) {
+                vector[i] = emb.get(i).asDouble();
+            }
 
-                double[] vector = new double[emb.size()];
-                for (int i = 0; i < emb.size(); i++) {
-                    vector[i] = emb.get(i).asDouble();
-                }
+            // Usually OpenAI returns embeddings in input order; we still respect "index" when present.
+            if (index >= 0 && index < embeddings.length) {
+                embeddings[index] = vector;
+            }
+        }
 
-                // Usually OpenAI returns embeddings in input order; we still respect "index" when present.
-                if (index >= 0 && index < embeddings.length) {
-                    embeddings[index] = vector;
-                }
+        // Fallback if index wasn't present for some reason: fill sequentially.
+        for (int i = 0; i < embeddings.length; i++) {
+            if (embeddings[i] == null) {
+                // If we couldn't map by index, fail fast so we don't silently misalign chunks.
+                throw new RuntimeException("Embeddings response missing vector for input index " + i);
             }
+        }
 
-            // Fallback if index wasn't present for some reason: fill sequentially.
-            for (int i = 0; i < embeddings.length; i++) {
-                if (embeddings[i] == null) {
-                    // If we couldn't map by index, fail fast so we don't silently misalign chunks.
-                    throw new RuntimeException("Embeddings response missing vector for input index " + i);
-                }
+        List<double[]> result = new ArrayList<>(embeddings.length);
+        for (double[] vector : embeddings) {
+            result.add(vector);
+        }
+        return result;
+    }
+
+    private static <T> CompletableFuture<T> withErrorPrefix(CompletableFuture<T> future, String prefix) {
+        return future.handle((value, error) -> {
+            if (error == null) {
+                return value;
             }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            throw new RuntimeException(prefix + cause.getMessage(), cause);
+        });
+    }
 
-            List<double[]> result = new ArrayList<>(embeddings.length);
-            for (double[] vector : embeddings) {
-                result.add(vector);
+    // Blocking wrapper: waits for the future and rethrows the original RuntimeException rather than a CompletionException.
+    static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
-            return result;
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to fetch embeddings from OpenAI API: " + e.getMessage(), e);
+            throw e;
         }
     }
 
+    public String getEmbeddingModel() {
+        return embeddingModel;
+    }
+
     private ChatCompletionResponse parseResponse(String json) throws IOException {
         JsonNode root = objectMapper.readTree(json);
         JsonNode choices = root.get("choices");
@@ -170,6 +265,76 @@ public class OpenAiClient {
         return response;
     }
 
+    // Consumes the SSE body line by line: "data: {chunk}" lines carry choices[0].delta.content, "data: [DONE]" ends the stream.
+    private class StreamingLineSubscriber implements Flow.Subscriber<String> {
+        private final Consumer<String> onToken;
+        private final StringBuilder content = new StringBuilder();
+        private boolean listenerFailed;
+        private RuntimeException error;
+
+        StreamingLineSubscriber(Consumer<String> onToken) {
+            this.onToken = onToken;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (error != null || !line.startsWith("data:")) {
+                return;
+            }
+            String data = line.substring("data:".length()).trim();
+            if (data.isEmpty() || "[DONE]".equals(data)) {
+                return;
+            }
+
+            String token;
+            try {
+                JsonNode choices = objectMapper.readTree(data).get("choices");
+                if (choices == null || !choices.isArray() || choices.size() == 0) {
+                    return;
+                }
+                JsonNode delta = choices.get(0).get("delta");
+                if (delta == null || !delta.has("content") || delta.get("content").isNull()) {
+                    return;
+                }
+                token = delta.get("content").asText();
+            } catch (IOException e) {
+                error = new RuntimeException("Invalid streaming chunk from OpenAI API: " + data, e);
+                return;
+            }
+
+            content.append(token);
+            // A failing listener (e.g. the client hung up) stops receiving tokens, but the full content is still assembled.
+            if (!listenerFailed && !token.isEmpty()) {
+                try {
+                    onToken.accept(token);
+                } catch (RuntimeException e) {
+                    listenerFailed = true;
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // Surfaced by the HttpClient through the response future.
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        String getContent() {
+            if (error != null) {
+                throw error;
+            }
+            return content.toString();
+        }
+    }
+
     public static class ChatCompletionResponse {
         private String content;
         private List<ToolCall> toolCalls = new ArrayList<>();
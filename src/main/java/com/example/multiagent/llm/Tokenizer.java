@@ -0,0 +1,154 @@
+package com.example.multiagent.llm;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Local token counter for prompt budgeting; never calls the API.
+// Text is split with the cl100k_base pre-tokenisation pattern, and BPE merges never cross those pieces.
+// With a tiktoken rank file (llm.tokenizer.bpe-ranks, lines of "<base64 token> <rank>") each piece is
+// byte-pair merged exactly as tiktoken does; without one, piece lengths give a conservative estimate.
+@Component
+public class Tokenizer {
+    private static final Pattern PIECE = Pattern.compile(
+            "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+
+    // Chat format overhead (OpenAI cookbook): per message for role and separators, plus priming of the reply.
+    public static final int TOKENS_PER_MESSAGE = 4;
+    public static final int REPLY_PRIMING_TOKENS = 3;
+
+    // Token bytes as ISO-8859-1 strings (one char per byte) -> merge rank; null in estimate mode.
+    private final Map<String, Integer> ranks;
+    private final String name;
+
+    public Tokenizer(@Value("${llm.tokenizer.bpe-ranks:}") String ranksPath) {
+        Map<String, Integer> loaded = null;
+        String loadedName = "estimate";
+        if (ranksPath != null && !ranksPath.isBlank()) {
+            try {
+                loaded = loadRanks(Paths.get(ranksPath));
+                loadedName = "bpe:" + Paths.get(ranksPath).getFileName();
+                System.out.println("Tokenizer: loaded " + loaded.size() + " BPE ranks from " + ranksPath);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Error loading BPE ranks " + ranksPath + ", estimating token counts instead: " + e.getMessage());
+            }
+        }
+        this.ranks = loaded;
+        this.name = loadedName;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int count(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return 0;
+        }
+        int tokens = 0;
+        Matcher matcher = PIECE.matcher(text);
+        while (matcher.find()) {
+            tokens += countPiece(matcher.group());
+        }
+        return tokens;
+    }
+
+    public int count(Message message) {
+        return TOKENS_PER_MESSAGE + count(message.getContent());
+    }
+
+    // Longest prefix of text, cut at a piece boundary, that is at most maxTokens tokens.
+    public String truncate(String text, int maxTokens) {
+        if (text == null || maxTokens <= 0) {
+            return "";
+        }
+        int tokens = 0;
+        int end = 0;
+        Matcher matcher = PIECE.matcher(text);
+        while (matcher.find()) {
+            tokens += countPiece(matcher.group());
+            if (tokens > maxTokens) {
+                return text.substring(0, end);
+            }
+            end = matcher.end();
+        }
+        return text;
+    }
+
+    private int countPiece(String piece) {
+        if (ranks != null) {
+            return bytePairCount(new String(piece.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1));
+        }
+        // cl100k averages 4+ characters per token on English words; non-ASCII text costs more per character
+        int ascii = 0;
+        int otherBytes = 0;
+        for (int i = 0; i < piece.length(); i++) {
+            char c = piece.charAt(i);
+            if (c < 0x80) {
+                ascii++;
+            } else {
+                otherBytes += c < 0x800 ? 2 : 3;
+            }
+        }
+        return Math.max(1, (ascii + 5) / 6 + (otherBytes + 3) / 4);
+    }
+
+    // tiktoken's byte_pair_merge: repeatedly merge the adjacent pair with the lowest rank.
+    private int bytePairCount(String bytes) {
+        if (bytes.length() <= 1 || ranks.containsKey(bytes)) {
+            return 1;
+        }
+        List<Integer> boundaries = new ArrayList<>(bytes.length() + 1);
+        for (int i = 0; i <= bytes.length(); i++) {
+            boundaries.add(i);
+        }
+        while (boundaries.size() > 2) {
+            int best = -1;
+            int bestRank = Integer.MAX_VALUE;
+            for (int i = 0; i + 2 < boundaries.size(); i++) {
+                Integer rank = ranks.get(bytes.substring(boundaries.get(i), boundaries.get(i + 2)));
+                if (rank != null && rank < bestRank) {
+                    bestRank = rank;
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            boundaries.remove(best + 1);
+        }
+        return boundaries.size() - 1;
+    }
+
+    private static Map<String, Integer> loadRanks(Path path) throws IOException {
+        Map<String, Integer> ranks = new HashMap<>(200_000);
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space <= 0) {
+                    continue;
+                }
+                byte[] token = Base64.getDecoder().decode(line.substring(0, space));
+                ranks.put(new String(token, StandardCharsets.ISO_8859_1), Integer.parseInt(line.substring(space + 1).trim()));
+            }
+        }
+        if (ranks.isEmpty()) {
+            throw new IllegalArgumentException("no ranks found");
+        }
+        return ranks;
+    }
+}
@@ -2,14 +2,30 @@ package com.example.multiagent.orchestrator;
 
 import com.example.multiagent.agents.BillingAgent;
 import com.example.multiagent.agents.TechAgent;
+import com.example.multiagent.cache.SemanticCache;
+import com.example.multiagent.config.HelpingTask;
 import com.example.multiagent.controller.ChatResponse;
 import com.example.multiagent.llm.Message;
+import com.example.multiagent.retrieval.Chunk;
+import com.example.multiagent.retrieval.RetrievalResult;
 import com.example.multiagent.retrieval.Retriever;
+import com.example.multiagent.retrieval.ScoredChunk;
 import com.example.multiagent.storage.InMemoryConversationStore;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 @Service
 public class ConversationOrchestrator {
@@ -18,6 +34,16 @@ public class ConversationOrchestrator {
     private final TechAgent techAgent;
     private final BillingAgent billingAgent;
     private final InMemoryConversationStore conversationStore;
+    private final ExecutorService executor;
+    private final boolean speculativeRetrieval;
+    private final SemanticCache<TechAgent.TechAgentResult> answerCache;
+    private final double falseHitSampleRate;
+    private final ConversationTurnLocks turnLocks;
+
+    private final AtomicLong speculativeStarted = new AtomicLong();
+    private final AtomicLong speculativeUsed = new AtomicLong();
+    private final AtomicLong speculativeWasted = new AtomicLong();
+    private final AtomicLong speculativeWaitNanos = new AtomicLong();
 
     @Autowired
     public ConversationOrchestrator(
@@ -25,15 +51,49 @@ public class ConversationOrchestrator {
             Retriever retriever,
             TechAgent techAgent,
             BillingAgent billingAgent,
-            InMemoryConversationStore conversationStore) {
+            InMemoryConversationStore conversationStore,
+            @Qualifier("llmExecutor") ExecutorService executor,
+            @Value("${orchestrator.speculative-retrieval:false}") boolean speculativeRetrieval,
+            @Value("${orchestrator.answer-cache.max-entries:2000}") int answerCacheMaxEntries,
+            @Value("${orchestrator.answer-cache.min-similarity:0.95}") double answerCacheMinSimilarity,
+            @Value("${orchestrator.answer-cache.ttl:PT6H}") Duration answerCacheTtl,
+            @Value("${orchestrator.answer-cache.false-hit-sample-rate:0.02}") double falseHitSampleRate,
+            @Value("${orchestrator.serialize-turns:false}") boolean serializeTurns,
+            @Value("${orchestrator.turn-lock-timeout:PT2M}") Duration turnLockTimeout) {
         this.router = router;
         this.retriever = retriever;
         this.techAgent = techAgent;
         this.billingAgent = billingAgent;
         this.conversationStore = conversationStore;
+        this.executor = executor;
+        this.speculativeRetrieval = speculativeRetrieval;
+        this.answerCache = new SemanticCache<>(answerCacheMaxEntries, answerCacheMinSimilarity, answerCacheTtl);
+        this.falseHitSampleRate = falseHitSampleRate;
+        this.turnLocks = serializeTurns ? new ConversationTurnLocks(turnLockTimeout) : null;
+        retriever.addDocumentChangeListener(this::invalidateAnswers);
     }
 
     public ChatResponse handle(String conversationId, String message) {
+        return handle(conversationId, message, null);
+    }
+
+    // Streaming variant: answer text is passed to onToken as it is generated (TECH streams token by token;
+    // BILLING and OUT_OF_SCOPE emit their complete answer once). The returned response carries the metadata.
+    public ChatResponse handleStream(String conversationId, String message, Consumer<String> onToken) {
+        return handle(conversationId, message, Objects.requireNonNull(onToken));
+    }
+
+    private ChatResponse handle(String conversationId, String message, Consumer<String> onToken) {
+        if (turnLocks == null) {
+            return handleTurn(conversationId, message, onToken);
+        }
+        // One turn at a time per conversation, so each turn sees the previous turn's answer in its history
+        try (ConversationTurnLocks.Turn turn = turnLocks.acquire(conversationId)) {
+            return handleTurn(conversationId, message, onToken);
+        }
+    }
+
+    private ChatResponse handleTurn(String conversationId, String message, Consumer<String> onToken) {
         // Get conversation history
         List<Message> history = conversationStore.getHistoryForLlm(conversationId);
 
@@ -41,15 +101,28 @@ public class ConversationOrchestrator {
         Message userMessage = new Message("user", message);
         conversationStore.append(conversationId, userMessage);
 
+        // Speculatively retrieve while routing runs; the snippets are only used if the route is TECH
+        HelpingTask<RetrievalResult> speculative = null;
+        if (speculativeRetrieval) {
+            speculativeStarted.incrementAndGet();
+            speculative = HelpingTask.fork(executor, () -> retriever.search(message));
+        }
+
         // Route the message
         RouteResult routeResult = router.route(history, message);
         String route = routeResult.getRoute();
 
+        if (speculative != null && !"TECH".equals(route)) {
+            speculative.cancel(false);
+            speculativeWasted.incrementAndGet();
+        }
+
         ChatResponse response;
 
         switch (route) {
             case "TECH":
-                response = handleTechRequest(history, message);
+                RetrievalResult retrieval = speculative == null ? retriever.search(message) : awaitSpeculative(speculative);
+                response = handleTechRequest(history, message, retrieval, onToken);
                 break;
             case "BILLING":
                 response = handleBillingRequest(history, message);
@@ -67,15 +140,81 @@ public class ConversationOrchestrator {
         Message assistantMessage = new Message("assistant", response.getResponse());
         conversationStore.append(conversationId, assistantMessage);
 
+        if (onToken != null && !"TECH".equals(route) && response.getResponse() != null) {
+            onToken.accept(response.getResponse());
+        }
+
         return response;
     }
 
-    private ChatResponse handleTechRequest(List<Message> history, String message) {
-        // Retrieve relevant snippets
-        List<com.example.multiagent.retrieval.Chunk> snippets = retriever.retrieve(message, 4);
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("speculativeRetrieval", speculativeRetrieval);
+        long started = speculativeStarted.get();
+        long used = speculativeUsed.get();
+        stats.put("speculativeStarted", started);
+        stats.put("speculativeUsed", used);
+        stats.put("speculativeWasted", speculativeWasted.get());
+        stats.put("speculativeWasteRate", started == 0 ? 0.0 : (double) speculativeWasted.get() / started);
+        // Time TECH requests still waited on retrieval after routing returned (0 when fully hidden behind routing)
+        stats.put("speculativeAvgWaitMs", used == 0 ? 0.0 : speculativeWaitNanos.get() / 1_000_000.0 / used);
+        stats.put("answerCache", answerCache.stats());
+        stats.put("serializeTurns", turnLocks != null);
+        if (turnLocks != null) {
+            stats.put("turnLocks", turnLocks.stats());
+        }
+        return stats;
+    }
+
+    // Drops cached TECH answers built from the given document's snippets.
+    public int invalidateAnswers(String docId) {
+        return answerCache.invalidateTag(docId);
+    }
+
+    private RetrievalResult awaitSpeculative(HelpingTask<RetrievalResult> speculative) {
+        long start = System.nanoTime();
+        try {
+            return speculative.join();
+        } finally {
+            speculativeUsed.incrementAndGet();
+            speculativeWaitNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private ChatResponse handleTechRequest(List<Message> history, String message, RetrievalResult retrieval, Consumer<String> onToken) {
+        // Relevant snippets
+        List<Chunk> snippets = retrieval.getChunks();
 
-        // Get answer from TechAgent
-        TechAgent.TechAgentResult result = techAgent.answer(history, message, snippets);
+        // Semantic answer cache: a near-identical question over the same snippets and the same prompt history reuses
+        // the earlier answer, so an answer drawing on one conversation's details is never served to another.
+        // Streamed answers are plain text and /chat answers come from JSON, so the two are cached apart.
+        float[] queryVector = retrieval.getQueryVector();
+        boolean plainText = onToken != null;
+        boolean cacheable = answerCache.isEnabled() && queryVector != null && !snippets.isEmpty();
+        String snippetKey = cacheable ? contextKey(snippets, plainText, techAgent.promptHistory(history)) : null;
+        TechAgent.TechAgentResult result = cacheable ? answerCache.get(queryVector, snippetKey) : null;
+        boolean cacheHit = result != null;
+
+        if (cacheHit) {
+            if (onToken != null) {
+                onToken.accept(result.getAnswer());
+            }
+            if (falseHitSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < falseHitSampleRate) {
+                sampleCachedAnswer(history, message, snippets, plainText, result);
+            }
+        } else {
+            // Get answer from TechAgent
+            result = onToken == null
+                    ? techAgent.answer(history, message, snippets)
+                    : techAgent.answerStream(history, message, snippets, onToken);
+            if (cacheable && !result.isFailed()) {
+                Set<String> docIds = new HashSet<>();
+                for (Chunk chunk : snippets) {
+                    docIds.add(chunk.getDocId());
+                }
+                answerCache.put(queryVector, snippetKey, docIds, result);
+            }
+        }
 
         ChatResponse response = new ChatResponse();
         response.setResponse(result.getAnswer());
@@ -85,11 +224,99 @@ public class ConversationOrchestrator {
         Map<String, Object> meta = new HashMap<>();
         meta.put("snippetsFound", snippets.size());
         meta.put("needsClarification", result.needsClarification());
+        meta.put("retrieval", retrievalMeta(retrieval));
+        if (!cacheHit && result.getPrompt() != null) {
+            meta.put("prompt", result.getPrompt().toMap());
+        }
         response.setMeta(meta);
 
         return response;
     }
 
+    // Response format, a digest of the prompt history (empty for a first turn, so those are shared across
+    // conversations) and an order-independent list of the retrieved chunks; the text hash makes edited sections miss.
+    static String contextKey(List<Chunk> snippets, boolean plainText, List<Message> history) {
+        TreeSet<String> ids = new TreeSet<>();
+        for (Chunk chunk : snippets) {
+            ids.add(chunk.getDocId() + ":" + chunk.getSectionTitle() + "#" + Integer.toHexString(textHash(chunk.textSequence())));
+        }
+        return (plainText ? "text\n" : "json\n") + historyDigest(history) + "\n" + String.join("\n", ids);
+    }
+
+    // String.hashCode() of the text without copying a mapped chunk onto the heap.
+    private static int textHash(CharSequence text) {
+        int hash = 0;
+        for (int i = 0; i < text.length(); i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash;
+    }
+
+    private static String historyDigest(List<Message> history) {
+        if (history.isEmpty()) {
+            return "-";
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Message message : history) {
+                digest.update(String.valueOf(message.getRole()).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(String.valueOf(message.getContent()).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // Re-answers a sampled cache hit off the request path; a hit counts as false when the fresh answer
+    // cites different sources or disagrees on needing clarification. Skipped when the executor is saturated.
+    private void sampleCachedAnswer(List<Message> history, String message, List<Chunk> snippets, boolean plainText,
+                                    TechAgent.TechAgentResult cached) {
+        try {
+            executor.execute(() -> {
+                TechAgent.TechAgentResult fresh = plainText
+                        ? techAgent.answerStream(history, message, snippets, token -> { })
+                        : techAgent.answer(history, message, snippets);
+                if (!fresh.isFailed()) {
+                    boolean agreed = fresh.needsClarification() == cached.needsClarification()
+                            && new HashSet<>(fresh.getCitations()).equals(new HashSet<>(cached.getCitations()));
+                    answerCache.recordSample(agreed);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the sample is only an estimate
+        }
+    }
+
+    private Map<String, Object> retrievalMeta(RetrievalResult retrieval) {
+        Map<String, Object> meta = new LinkedHashMap<>();
+        meta.put("mode", retrieval.getMode());
+        if (retrieval.getVectorLatencyMillis() >= 0) {
+            meta.put("vectorLatencyMs", retrieval.getVectorLatencyMillis());
+        }
+        if (retrieval.getLexicalLatencyMillis() >= 0) {
+            meta.put("lexicalLatencyMs", retrieval.getLexicalLatencyMillis());
+        }
+
+        List<Map<String, Object>> scores = new ArrayList<>();
+        for (ScoredChunk hit : retrieval.getHits()) {
+            Map<String, Object> score = new LinkedHashMap<>();
+            score.put("source", hit.getChunk().getDocId() + ":" + hit.getChunk().getSectionTitle());
+            score.put("score", hit.getScore());
+            if (hit.getVectorScore() != null) {
+                score.put("vectorScore", hit.getVectorScore());
+            }
+            if (hit.getLexicalScore() != null) {
+                score.put("lexicalScore", hit.getLexicalScore());
+            }
+            scores.add(score);
+        }
+        meta.put("scores", scores);
+        return meta;
+    }
+
     private ChatResponse handleBillingRequest(List<Message> history, String message) {
         // Get answer from BillingAgent (handles tool calling internally)
         BillingAgent.BillingAgentResult result = billingAgent.answer(history, message);
@@ -0,0 +1,84 @@
+package com.example.multiagent.orchestrator;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One fair lock per conversation id, created on first use and dropped when no turn holds or waits for it,
+// so turns of the same conversation run one at a time in arrival order while other conversations are unaffected.
+// ReentrantLock rather than synchronized: a virtual thread waiting here does not pin its carrier.
+class ConversationTurnLocks {
+    private final Map<String, TurnLock> locks = new ConcurrentHashMap<>();
+    private final long timeoutNanos;
+
+    private final AtomicLong turns = new AtomicLong();
+    private final AtomicLong contended = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    ConversationTurnLocks(Duration timeout) {
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    // Blocks until the conversation is free; the returned handle must be closed to release it.
+    Turn acquire(String conversationId) {
+        TurnLock turnLock = locks.compute(conversationId, (id, existing) -> {
+            TurnLock lock = existing != null ? existing : new TurnLock();
+            lock.users++;
+            return lock;
+        });
+
+        turns.incrementAndGet();
+        long start = System.nanoTime();
+        boolean acquired = false;
+        try {
+            // The timed form with zero wait honours fairness; the no-arg tryLock() would barge past queued turns
+            acquired = turnLock.lock.tryLock(0, TimeUnit.NANOSECONDS);
+            if (!acquired) {
+                contended.incrementAndGet();
+                acquired = turnLock.lock.tryLock(timeoutNanos, TimeUnit.NANOSECONDS);
+                waitNanos.addAndGet(System.nanoTime() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!acquired) {
+            release(conversationId, turnLock);
+            timeouts.incrementAndGet();
+            throw new IllegalStateException("Conversation " + conversationId + " is busy with another message, please retry");
+        }
+        return () -> {
+            turnLock.lock.unlock();
+            release(conversationId, turnLock);
+        };
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long contendedCount = contended.get();
+        stats.put("turns", turns.get());
+        stats.put("contended", contendedCount);
+        stats.put("timeouts", timeouts.get());
+        stats.put("avgContendedWaitMs", contendedCount == 0 ? 0.0 : waitNanos.get() / 1_000_000.0 / contendedCount);
+        stats.put("activeLocks", locks.size());
+        return stats;
+    }
+
+    private void release(String conversationId, TurnLock turnLock) {
+        locks.computeIfPresent(conversationId, (id, lock) -> lock == turnLock && --lock.users == 0 ? null : lock);
+    }
+
+    interface Turn extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static class TurnLock {
+        final ReentrantLock lock = new ReentrantLock(true);
+        int users = 0; // guarded by the map's compute
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.multiagent.orchestrator;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// Local keyword/regex classifier used as a fast path in front of the LLM router.
+// Each matching rule adds evidence for its route: evidence = 1 - prod(1 - weight).
+// Confidence = evidence(best route) * (1 - evidence(runner-up)), so messages mixing TECH and BILLING
+// terms score low and are left to the LLM. OUT_OF_SCOPE is never predicted locally.
+@Component
+public class IntentClassifier {
+    private static final List<Rule> RULES = List.of(
+            new Rule("TECH", "\\bwebhooks?\\b", 0.8),
+            new Rule("TECH", "\\bapi\\s*keys?\\b", 0.75),
+            new Rule("TECH", "\\b(oauth|jwt|bearer|access tokens?|client secret)\\b", 0.75),
+            new Rule("TECH", "\\bauthenticat\\w*", 0.6),
+            new Rule("TECH", "\\b(signatures?|hmac)\\b", 0.5),
+            new Rule("TECH", "\\b(400|401|403|404|409|422|429|500|502|503|504)\\b", 0.6),
+            new Rule("TECH", "\\b(endpoints?|sdk|api|curl|payloads?|json|https?|headers?|rate limit\\w*|timeouts?|retr(y|ies))\\b", 0.5),
+            new Rule("TECH", "\\b(integrat\\w*|implement\\w*|debug\\w*|stack trace|exceptions?|errors?|bugs?)\\b", 0.4),
+            new Rule("BILLING", "\\brefund\\w*", 0.85),
+            new Rule("BILLING", "\\b(invoices?|billing|billed|charged?|charges|overcharged)\\b", 0.75),
+            new Rule("BILLING", "\\b(subscriptions?|subscribe|unsubscribe|renewal|renew)\\b", 0.7),
+            new Rule("BILLING", "\\b(payments?|paypal|credit card|debit card|bank transfer)\\b", 0.6),
+            new Rule("BILLING", "\\b(plans?|pricing|price|upgrade|downgrade|trial)\\b", 0.4),
+            new Rule("BILLING", "\\b(orders?|purchase[ds]?|money back)\\b", 0.3)
+    );
+
+    public Classification classify(String message) {
+        if (message == null || message.isBlank()) {
+            return new Classification(null, 0.0, List.of());
+        }
+        String text = message.toLowerCase(Locale.ROOT);
+
+        Map<String, Double> missProbability = new LinkedHashMap<>();
+        List<String> matched = new ArrayList<>();
+        for (Rule rule : RULES) {
+            if (rule.pattern.matcher(text).find()) {
+                missProbability.merge(rule.route, 1.0 - rule.weight, (a, b) -> a * b);
+                matched.add(rule.route + ":" + rule.pattern.pattern());
+            }
+        }
+        if (missProbability.isEmpty()) {
+            return new Classification(null, 0.0, matched);
+        }
+
+        String best = null;
+        double bestEvidence = 0.0;
+        double runnerUpEvidence = 0.0;
+        for (Map.Entry<String, Double> entry : missProbability.entrySet()) {
+            double evidence = 1.0 - entry.getValue();
+            if (evidence > bestEvidence) {
+                runnerUpEvidence = bestEvidence;
+                bestEvidence = evidence;
+                best = entry.getKey();
+            } else if (evidence > runnerUpEvidence) {
+                runnerUpEvidence = evidence;
+            }
+        }
+        return new Classification(best, bestEvidence * (1.0 - runnerUpEvidence), matched);
+    }
+
+    public static class Classification {
+        private final String route;
+        private final double confidence;
+        private final List<String> matchedRules;
+
+        public Classification(String route, double confidence, List<String> matchedRules) {
+            this.route = route;
+            this.confidence = confidence;
+            this.matchedRules = matchedRules;
+        }
+
+        // null when no rule matched
+        public String getRoute() {
+            return route;
+        }
+
+        public double getConfidence() {
+            return confidence;
+        }
+
+        public List<String> getMatchedRules() {
+            return matchedRules;
+        }
+    }
+
+    private static class Rule {
+        final String route;
+        final Pattern pattern;
+        final double weight;
+
+        Rule(String route, String regex, double weight) {
+            this.route = route;
+            this.pattern = Pattern.compile(regex);
+            this.weight = weight;
+        }
+    }
+}
@@ -1,27 +1,123 @@
 package com.example.multiagent.orchestrator;
 
+import com.example.multiagent.cache.BoundedCache;
+import com.example.multiagent.config.HelpingTask;
 import com.example.multiagent.llm.LlmClient;
 import com.example.multiagent.llm.Message;
+import com.example.multiagent.storage.ConversationHistory;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 @Component
 public class Router {
+    private static final int CONTEXT_TURNS = 6;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\p{Punct}\\s]+$");
+
     private final LlmClient llmClient;
     private final ObjectMapper objectMapper;
+    private final IntentClassifier intentClassifier;
+    private final ExecutorService executor;
+    private final boolean fastPathEnabled;
+    private final double fastPathMinConfidence;
+    private final Resource replaySet;
+    private final BoundedCache<String, RouteResult> routeCache;
+
+    private final AtomicLong routed = new AtomicLong();
+    private final AtomicLong fastPathRouted = new AtomicLong();
+    private final Map<String, AtomicLong> fastPathByRoute = new ConcurrentHashMap<>();
+    private volatile Map<String, Object> lastReplay = null;
 
     @Autowired
-    public Router(LlmClient llmClient) {
+    public Router(
+            LlmClient llmClient,
+            IntentClassifier intentClassifier,
+            @Qualifier("llmExecutor") ExecutorService executor,
+            @Value("${router.fast-path.enabled:true}") boolean fastPathEnabled,
+            @Value("${router.fast-path.min-confidence:0.8}") double fastPathMinConfidence,
+            @Value("${router.fast-path.replay-set:classpath:routing-replay.txt}") Resource replaySet,
+            @Value("${router.cache.max-entries:10000}") int cacheMaxEntries,
+            @Value("${router.cache.max-bytes:16777216}") long cacheMaxBytes,
+            @Value("${router.cache.ttl:PT30M}") Duration cacheTtl) {
         this.llmClient = llmClient;
         this.objectMapper = new ObjectMapper();
+        this.intentClassifier = intentClassifier;
+        this.executor = executor;
+        this.fastPathEnabled = fastPathEnabled;
+        this.fastPathMinConfidence = fastPathMinConfidence;
+        this.replaySet = replaySet;
+        this.routeCache = new BoundedCache<>(cacheMaxEntries, cacheMaxBytes, cacheTtl,
+                (key, result) -> 96L + 2L * (key.length() + result.getRoute().length() + (result.getWhy() == null ? 0 : result.getWhy().length())));
     }
 
     public RouteResult route(List<Message> history, String userMessage) {
+        routed.incrementAndGet();
+        if (fastPathEnabled) {
+            IntentClassifier.Classification classification = intentClassifier.classify(userMessage);
+            if (classification.getRoute() != null && classification.getConfidence() >= fastPathMinConfidence) {
+                fastPathRouted.incrementAndGet();
+                fastPathByRoute.computeIfAbsent(classification.getRoute(), k -> new AtomicLong()).incrementAndGet();
+                return new RouteResult(classification.getRoute(),
+                        String.format("Local classifier (confidence %.2f)", classification.getConfidence()));
+            }
+        }
+
+        // Identical message in an identical routing context: reuse the earlier LLM decision
+        String cacheKey = routeCache.isEnabled() ? cacheKey(history, userMessage) : null;
+        if (cacheKey != null) {
+            RouteResult cached = routeCache.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        try {
+            RouteResult result = callLlmRouter(history, userMessage);
+            if (cacheKey != null) {
+                routeCache.put(cacheKey, result);
+            }
+            return result;
+        } catch (RuntimeException e) {
+            return routingFailed(e);
+        }
+    }
+
+    public RouteResult routeWithLlm(List<Message> history, String userMessage) {
+        try {
+            return callLlmRouter(history, userMessage);
+        } catch (RuntimeException e) {
+            return routingFailed(e);
+        }
+    }
+
+    // Failed decisions are never cached, so a transient LLM error does not stick to a message.
+    private RouteResult routingFailed(RuntimeException e) {
+        return new RouteResult("OUT_OF_SCOPE", "Failed to parse routing response: " + e.getMessage());
+    }
+
+    private RouteResult callLlmRouter(List<Message> history, String userMessage) {
         String prompt = buildRoutingPrompt(history, userMessage);
         
         List<Message> messages = new ArrayList<>();
@@ -49,7 +145,98 @@ public class Router {
             }
         }
 
-        return new RouteResult("OUT_OF_SCOPE", "Failed to parse routing response: " + (lastException == null ? "unknown error" : lastException.getMessage()));
+        if (lastException instanceof RuntimeException) {
+            throw (RuntimeException) lastException;
+        }
+        throw new RuntimeException(lastException == null ? "unknown error" : lastException.getMessage(), lastException);
+    }
+
+    // Normalised message plus the last CONTEXT_TURNS history turns (and the summary), i.e. everything buildRoutingPrompt depends on.
+    private static String cacheKey(List<Message> history, String userMessage) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(normalize(userMessage).getBytes(StandardCharsets.UTF_8));
+            for (Message msg : ConversationHistory.recent(history, CONTEXT_TURNS)) {
+                digest.update((byte) 0);
+                digest.update(String.valueOf(msg.getRole()).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) ':');
+                digest.update(normalize(msg.getContent()).getBytes(StandardCharsets.UTF_8));
+            }
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String collapsed = WHITESPACE.matcher(text.trim().toLowerCase(Locale.ROOT)).replaceAll(" ");
+        return TRAILING_PUNCTUATION.matcher(collapsed).replaceAll("");
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long total = routed.get();
+        stats.put("fastPathEnabled", fastPathEnabled);
+        stats.put("fastPathMinConfidence", fastPathMinConfidence);
+        stats.put("routed", total);
+        stats.put("fastPathRouted", fastPathRouted.get());
+        stats.put("fastPathRate", total == 0 ? 0.0 : (double) fastPathRouted.get() / total);
+        Map<String, Long> byRoute = new LinkedHashMap<>();
+        fastPathByRoute.forEach((route, count) -> byRoute.put(route, count.get()));
+        stats.put("fastPathByRoute", byRoute);
+        stats.put("routeCache", routeCache.stats());
+        if (lastReplay != null) {
+            stats.put("lastReplay", lastReplay);
+        }
+        return stats;
+    }
+
+    // Routes every replay-set message through the LLM router (without history) and reports how the local
+    // classifier would have done against it at a range of thresholds, including the configured one.
+    public Map<String, Object> replay() {
+        List<String> messages = loadReplaySet();
+        List<HelpingTask<String>> futures = new ArrayList<>();
+        for (String message : messages) {
+            futures.add(HelpingTask.fork(executor, () -> routeWithLlm(List.of(), message).getRoute()));
+        }
+        List<String> llmRoutes = new ArrayList<>();
+        for (HelpingTask<String> future : futures) {
+            llmRoutes.add(future.join());
+        }
+
+        TreeSet<Double> thresholds = new TreeSet<>(List.of(0.5, 0.6, 0.7, 0.8, 0.9, 0.95));
+        thresholds.add(fastPathMinConfidence);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("messages", messages.size());
+        result.put("configuredThreshold", fastPathMinConfidence);
+        result.put("thresholds", RouterReplayEvaluator.agreement(intentClassifier, messages, llmRoutes, new ArrayList<>(thresholds)));
+        lastReplay = result;
+        return result;
+    }
+
+    private List<String> loadReplaySet() {
+        List<String> messages = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(replaySet.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    messages.add(line);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read routing replay set " + replaySet + ": " + e.getMessage(), e);
+        }
+        return messages;
     }
 
     private String buildRoutingPrompt(List<Message> history, String userMessage) {
@@ -59,9 +246,7 @@ public class Router {
         
         if (!history.isEmpty()) {
             prompt.append("Recent conversation context:\n");
-            int contextSize = Math.min(history.size(), 6);
-            for (int i = Math.max(0, history.size() - contextSize); i < history.size(); i++) {
-                Message msg = history.get(i);
+            for (Message msg : ConversationHistory.recent(history, CONTEXT_TURNS)) {
                 prompt.append(msg.getRole().toUpperCase()).append(": ").append(msg.getContent()).append("\n");
             }
             prompt.append("\n");
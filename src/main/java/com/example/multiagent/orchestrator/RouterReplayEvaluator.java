@@ -0,0 +1,45 @@
+package com.example.multiagent.orchestrator;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class RouterReplayEvaluator {
+
+    private RouterReplayEvaluator() {
+    }
+
+    // For each threshold: the fraction of replayed messages the classifier would short-circuit,
+    // and how often those local routes agree with the LLM router's route for the same message.
+    public static List<Map<String, Object>> agreement(IntentClassifier classifier, List<String> messages, List<String> llmRoutes, List<Double> thresholds) {
+        List<IntentClassifier.Classification> local = new ArrayList<>(messages.size());
+        for (String message : messages) {
+            local.add(classifier.classify(message));
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (double threshold : thresholds) {
+            int shortCircuited = 0;
+            int agreed = 0;
+            for (int i = 0; i < messages.size(); i++) {
+                IntentClassifier.Classification classification = local.get(i);
+                if (classification.getRoute() == null || classification.getConfidence() < threshold) {
+                    continue;
+                }
+                shortCircuited++;
+                if (classification.getRoute().equals(llmRoutes.get(i))) {
+                    agreed++;
+                }
+            }
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("threshold", threshold);
+            result.put("shortCircuitRate", messages.isEmpty() ? 0.0 : (double) shortCircuited / messages.size());
+            result.put("agreement", shortCircuited == 0 ? 1.0 : (double) agreed / shortCircuited);
+            result.put("disagreements", shortCircuited - agreed);
+            results.add(result);
+        }
+        return results;
+    }
+}
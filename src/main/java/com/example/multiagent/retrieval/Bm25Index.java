@@ -0,0 +1,195 @@
+package com.example.multiagent.retrieval;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Inverted index over chunk text and section title, scored with BM25 (title term frequency boosted).
+// Immutable once built, so it can be searched concurrently.
+public class Bm25Index {
+    private static final Pattern TOKEN_PATTERN = Pattern.compile("\\w+");
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final double TITLE_BOOST = 3.0;
+
+    private final Map<String, Postings> postings;
+    private final int[] docLengths;
+    private final double avgDocLength;
+
+    public Bm25Index(List<Chunk> chunks) {
+        Map<String, PostingsBuilder> builders = new HashMap<>();
+        this.docLengths = new int[chunks.size()];
+        long totalLength = 0;
+
+        for (int docId = 0; docId < chunks.size(); docId++) {
+            Chunk chunk = chunks.get(docId);
+            Map<String, int[]> termFrequencies = new HashMap<>();
+            int bodyLength = countTerms(chunk.textSequence(), termFrequencies, 0);
+            int titleLength = countTerms(chunk.getSectionTitle(), termFrequencies, 1);
+
+            for (Map.Entry<String, int[]> entry : termFrequencies.entrySet()) {
+                int[] tf = entry.getValue();
+                builders.computeIfAbsent(entry.getKey(), k -> new PostingsBuilder()).add(docId, tf[0], tf[1]);
+            }
+            docLengths[docId] = bodyLength + titleLength;
+            totalLength += docLengths[docId];
+        }
+
+        this.avgDocLength = totalLength == 0 ? 1.0 : (double) totalLength / chunks.size();
+        this.postings = new HashMap<>(builders.size() * 2);
+        for (Map.Entry<String, PostingsBuilder> entry : builders.entrySet()) {
+            postings.put(entry.getKey(), entry.getValue().build(chunks.size()));
+        }
+    }
+
+    // Returns up to k (chunk index, score) pairs with score > 0, best first. Only the postings of the query terms
+    // are scored, so the cost follows how common the terms are rather than the number of chunks.
+    public List<ScoredDoc> search(String query, int k) {
+        if (query == null || k <= 0 || docLengths.length == 0) {
+            return new ArrayList<>();
+        }
+
+        List<Postings> lists = new ArrayList<>();
+        int totalPostings = 0;
+        for (String term : new LinkedHashSet<>(tokenize(query))) {
+            Postings list = postings.get(term);
+            if (list != null) {
+                lists.add(list);
+                totalPostings += list.docIds.length;
+            }
+        }
+
+        Map<Integer, double[]> scores = new HashMap<>(Math.max(16, totalPostings * 2));
+        for (Postings list : lists) {
+            for (int i = 0; i < list.docIds.length; i++) {
+                int doc = list.docIds[i];
+                double tf = list.bodyTf[i] + TITLE_BOOST * list.titleTf[i];
+                double norm = K1 * (1 - B + B * docLengths[doc] / avgDocLength);
+                scores.computeIfAbsent(doc, d -> new double[1])[0] += list.idf * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+
+        PriorityQueue<ScoredDoc> top = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(a.getScore(), b.getScore()));
+        for (Map.Entry<Integer, double[]> entry : scores.entrySet()) {
+            double score = entry.getValue()[0];
+            if (top.size() < k) {
+                top.add(new ScoredDoc(entry.getKey(), score));
+            } else if (score > top.peek().getScore()) {
+                top.poll();
+                top.add(new ScoredDoc(entry.getKey(), score));
+            }
+        }
+
+        List<ScoredDoc> result = new ArrayList<>(top);
+        // Ties go to the earlier chunk, as with a scan in chunk order
+        result.sort((a, b) -> a.getScore() != b.getScore() ? Double.compare(b.getScore(), a.getScore()) : Integer.compare(a.getId(), b.getId()));
+        return result;
+    }
+
+    // search(), topped up to k with score-0 chunks in chunk order, like the keyword scan BM25 replaced: a question
+    // none of whose terms occur in the docs (e.g. a paraphrase) still gets some context when it is the only retriever.
+    public List<ScoredDoc> searchOrFill(String query, int k) {
+        List<ScoredDoc> result = search(query, k);
+        int limit = Math.min(k, docLengths.length);
+        if (result.size() < limit) {
+            Set<Integer> found = new HashSet<>();
+            for (ScoredDoc doc : result) {
+                found.add(doc.getId());
+            }
+            for (int doc = 0; doc < docLengths.length && result.size() < limit; doc++) {
+                if (!found.contains(doc)) {
+                    result.add(new ScoredDoc(doc, 0.0));
+                }
+            }
+        }
+        return result;
+    }
+
+    public int termCount() {
+        return postings.size();
+    }
+
+    public static List<String> tokenize(CharSequence text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        Matcher matcher = TOKEN_PATTERN.matcher(text);
+        while (matcher.find()) {
+            tokens.add(normalize(matcher.group().toLowerCase(Locale.ROOT)));
+        }
+        return tokens;
+    }
+
+    // Light plural folding so "webhooks" matches "webhook" (the old substring scorer did this implicitly).
+    private static String normalize(String token) {
+        if (token.length() > 3 && token.endsWith("s") && !token.endsWith("ss")) {
+            return token.substring(0, token.length() - 1);
+        }
+        return token;
+    }
+
+    private static int countTerms(CharSequence text, Map<String, int[]> termFrequencies, int field) {
+        List<String> tokens = tokenize(text);
+        for (String token : tokens) {
+            termFrequencies.computeIfAbsent(token, k -> new int[2])[field]++;
+        }
+        return tokens.size();
+    }
+
+    public static class ScoredDoc {
+        private final int id;
+        private final double score;
+
+        public ScoredDoc(int id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+
+    private static final class Postings {
+        final int[] docIds;
+        final int[] bodyTf;
+        final int[] titleTf;
+        final double idf;
+
+        Postings(int[] docIds, int[] bodyTf, int[] titleTf, double idf) {
+            this.docIds = docIds;
+            this.bodyTf = bodyTf;
+            this.titleTf = titleTf;
+            this.idf = idf;
+        }
+    }
+
+    private static final class PostingsBuilder {
+        private int[] docIds = new int[4];
+        private int[] bodyTf = new int[4];
+        private int[] titleTf = new int[4];
+        private int size = 0;
+
+        void add(int docId, int body, int title) {
+            if (size == docIds.length) {
+                docIds = Arrays.copyOf(docIds, size * 2);
+                bodyTf = Arrays.copyOf(bodyTf, size * 2);
+                titleTf = Arrays.copyOf(titleTf, size * 2);
+            }
+            docIds[size] = docId;
+            bodyTf[size] = body;
+            titleTf[size] = title;
+            size++;
+        }
+
+        Postings build(int totalDocs) {
+            double idf = Math.log(1 + (totalDocs - size + 0.5) / (size + 0.5));
+            return new Postings(Arrays.copyOf(docIds, size), Arrays.copyOf(bodyTf, size), Arrays.copyOf(titleTf, size), idf);
+        }
+    }
+}
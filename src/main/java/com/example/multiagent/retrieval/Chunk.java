@@ -1,9 +1,15 @@
 package com.example.multiagent.retrieval;
 
+// A chunk either owns its text or is a [start, end) range of a shared source (e.g. the memory-mapped corpus).
+// Range-backed chunks copy their text onto the heap only when getText() is called, and do not keep the copy,
+// so only the snippets that actually go into a prompt are ever materialised.
 public class Chunk {
     private String docId;
     private String sectionTitle;
     private String text;
+    private CharSequence source;
+    private int start;
+    private int end;
 
     public Chunk() {
     }
@@ -14,6 +20,14 @@ public class Chunk {
         this.text = text;
     }
 
+    public Chunk(String docId, String sectionTitle, CharSequence source, int start, int end) {
+        this.docId = docId;
+        this.sectionTitle = sectionTitle;
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
     public String getDocId() {
         return docId;
     }
@@ -31,10 +45,26 @@ public class Chunk {
     }
 
     public String getText() {
+        if (text == null && source != null) {
+            return source.subSequence(start, end).toString();
+        }
         return text;
     }
 
     public void setText(String text) {
         this.text = text;
+        this.source = null;
+    }
+
+    // The chunk text without materialising it; for scanning (tokenising, hashing) where a copy is not kept.
+    public CharSequence textSequence() {
+        if (text == null && source != null) {
+            return source.subSequence(start, end);
+        }
+        return text;
+    }
+
+    public int length() {
+        return text != null ? text.length() : end - start;
     }
 }
@@ -3,106 +3,106 @@ package com.example.multiagent.retrieval;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
+// Works on offsets into the document text, so chunks can stay views into a memory-mapped corpus;
+// no chunk text is copied here.
 @Component
 public class Chunker {
-    private static final Pattern HEADING_PATTERN = Pattern.compile("^## (.+)$", Pattern.MULTILINE);
     private static final int DEFAULT_CHUNK_SIZE = 1000;
     private static final int MIN_CHUNK_SIZE = 800;
     private static final int MAX_CHUNK_SIZE = 1200;
 
-    public List<Chunk> chunk(String docId, String content) {
+    public List<Chunk> chunk(String docId, CharSequence content) {
+        List<Heading> headings = findHeadings(content);
+        if (headings.isEmpty()) {
+            return splitBySize(content, 0, content.length(), "Content", docId);
+        }
+
         List<Chunk> chunks = new ArrayList<>();
-        
-        // Check if we have markdown headings
-        java.util.regex.Matcher headingMatcher = HEADING_PATTERN.matcher(content);
-        boolean hasHeadings = headingMatcher.find();
-        
-        if (hasHeadings) {
-            // Reset matcher
-            headingMatcher = HEADING_PATTERN.matcher(content);
-            
-            int lastEnd = 0;
-            String lastHeading = null;
-            
-            while (headingMatcher.find()) {
-                // Process section before this heading
-                if (lastEnd < headingMatcher.start()) {
-                    String sectionText = content.substring(lastEnd, headingMatcher.start()).trim();
-                    if (!sectionText.isEmpty()) {
-                        String sectionTitle = lastHeading != null ? lastHeading : "Introduction";
-                        if (sectionText.length() > MAX_CHUNK_SIZE) {
-                            chunks.addAll(splitBySize(sectionText, sectionTitle, docId));
-                        } else {
-                            chunks.add(new Chunk(docId, sectionTitle, sectionText));
-                        }
-                    }
-                }
-                
-                lastHeading = headingMatcher.group(1);
-                lastEnd = headingMatcher.end();
-            }
-            
-            // Process final section
-            if (lastEnd < content.length()) {
-                String sectionText = content.substring(lastEnd).trim();
-                if (!sectionText.isEmpty()) {
-                    String sectionTitle = lastHeading != null ? lastHeading : "Content";
-                    if (sectionText.length() > MAX_CHUNK_SIZE) {
-                        chunks.addAll(splitBySize(sectionText, sectionTitle, docId));
+        // Each heading's section runs to the next heading; text before the first heading is the introduction
+        int lastEnd = 0;
+        String lastHeading = "Introduction";
+        for (int h = 0; h <= headings.size(); h++) {
+            Heading next = h < headings.size() ? headings.get(h) : null;
+            int sectionEnd = next != null ? next.start : content.length();
+            if (lastEnd < sectionEnd) {
+                int[] section = trim(content, lastEnd, sectionEnd);
+                if (section[0] < section[1]) {
+                    if (section[1] - section[0] > MAX_CHUNK_SIZE) {
+                        chunks.addAll(splitBySize(content, section[0], section[1], lastHeading, docId));
                     } else {
-                        chunks.add(new Chunk(docId, sectionTitle, sectionText));
+                        chunks.add(new Chunk(docId, lastHeading, content, section[0], section[1]));
                     }
                 }
             }
-            
-            // Handle content before first heading
-            headingMatcher = HEADING_PATTERN.matcher(content);
-            if (headingMatcher.find()) {
-                String introText = content.substring(0, headingMatcher.start()).trim();
-                if (!introText.isEmpty() && chunks.isEmpty()) {
-                    // No content was added before first heading, add intro
-                    if (introText.length() > MAX_CHUNK_SIZE) {
-                        chunks.addAll(splitBySize(introText, "Introduction", docId));
-                    } else {
-                        chunks.add(0, new Chunk(docId, "Introduction", introText));
-                    }
-                }
+            if (next != null) {
+                lastHeading = next.title;
+                lastEnd = next.end;
             }
         }
-        
-        // If no headings or no chunks created, chunk by size
+
+        // If only headings and whitespace, chunk by size
         if (chunks.isEmpty()) {
-            chunks.addAll(splitBySize(content, "Content", docId));
+            chunks.addAll(splitBySize(content, 0, content.length(), "Content", docId));
         }
-        
+
         return chunks;
     }
 
-    private List<Chunk> splitBySize(String text, String baseTitle, String docId) {
+    // One pass over the text for "## title" lines; same matches as Pattern.compile("^## (.+)$", MULTILINE).
+    private static List<Heading> findHeadings(CharSequence content) {
+        List<Heading> headings = new ArrayList<>();
+        int length = content.length();
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && !isLineTerminator(content.charAt(lineEnd))) {
+                lineEnd++;
+            }
+            if (lineEnd - lineStart > 3 && content.charAt(lineStart) == '#' && content.charAt(lineStart + 1) == '#'
+                    && content.charAt(lineStart + 2) == ' ') {
+                headings.add(new Heading(lineStart, lineEnd, content.subSequence(lineStart + 3, lineEnd).toString()));
+            }
+            if (lineEnd < length - 1 && content.charAt(lineEnd) == '\r' && content.charAt(lineEnd + 1) == '\n') {
+                lineEnd++;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return headings;
+    }
+
+    // The terminators '^' and '$' recognise in MULTILINE mode without UNIX_LINES.
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    // Splits content[from, to) into chunks of about DEFAULT_CHUNK_SIZE characters.
+    private List<Chunk> splitBySize(CharSequence content, int from, int to, String baseTitle, String docId) {
         List<Chunk> chunks = new ArrayList<>();
-        int start = 0;
+        int start = from;
         int chunkIndex = 0;
 
-        while (start < text.length()) {
-            int end = Math.min(start + DEFAULT_CHUNK_SIZE, text.length());
-            
+        while (start < to) {
+            int end = Math.min(start + DEFAULT_CHUNK_SIZE, to);
+
             // Try to break at sentence or paragraph boundary
-            if (end < text.length()) {
+            if (end < to) {
                 // Look for paragraph break first
-                int paraBreak = text.lastIndexOf("\n\n", end);
+                int paraBreak = lastIndexOf(content, "\n\n", end, from, to);
                 if (paraBreak > start + MIN_CHUNK_SIZE) {
                     end = paraBreak + 2;
                 } else {
                     // Look for sentence boundary
                     int sentenceBreak = Math.max(
-                        text.lastIndexOf(". ", end),
+                        lastIndexOf(content, ". ", end, from, to),
                         Math.max(
-                            text.lastIndexOf(".\n", end),
-                            text.lastIndexOf("! ", end)
+                            lastIndexOf(content, ".\n", end, from, to),
+                            lastIndexOf(content, "! ", end, from, to)
                         )
                     );
                     if (sentenceBreak > start + MIN_CHUNK_SIZE) {
@@ -111,10 +111,10 @@ public class Chunker {
                 }
             }
 
-            String chunkText = text.substring(start, end).trim();
-            if (!chunkText.isEmpty()) {
+            int[] chunkRange = trim(content, start, end);
+            if (chunkRange[0] < chunkRange[1]) {
                 String sectionTitle = chunks.size() == 0 ? baseTitle : baseTitle + " (Part " + (chunkIndex + 1) + ")";
-                chunks.add(new Chunk(docId, sectionTitle, chunkText));
+                chunks.add(new Chunk(docId, sectionTitle, content, chunkRange[0], chunkRange[1]));
                 chunkIndex++;
             }
             start = end;
@@ -123,11 +123,66 @@ public class Chunker {
         return chunks;
     }
 
-    public List<Chunk> chunkAll(Map<String, String> documents) {
+    public List<Chunk> chunkAll(Map<String, ? extends CharSequence> documents, ForkJoinPool pool) {
         List<Chunk> allChunks = new ArrayList<>();
-        for (Map.Entry<String, String> entry : documents.entrySet()) {
-            allChunks.addAll(chunk(entry.getKey(), entry.getValue()));
+        for (List<Chunk> chunks : chunkByDocument(documents, pool).values()) {
+            allChunks.addAll(chunks);
         }
         return allChunks;
     }
+
+    // Documents are chunked in parallel on the given pool (a parallel stream started from one of its tasks stays
+    // on it rather than the common pool); the result keeps the input map's order.
+    public Map<String, List<Chunk>> chunkByDocument(Map<String, ? extends CharSequence> documents, ForkJoinPool pool) {
+        List<? extends Map.Entry<String, ? extends CharSequence>> entries = new ArrayList<>(documents.entrySet());
+        List<List<Chunk>> chunked = pool.submit(() -> entries.parallelStream()
+                .map(entry -> chunk(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList())).join();
+
+        Map<String, List<Chunk>> result = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            result.put(entries.get(i).getKey(), chunked.get(i));
+        }
+        return result;
+    }
+
+    // String.trim() semantics on the range [from, to); returns the trimmed {start, end}.
+    private static int[] trim(CharSequence content, int from, int to) {
+        while (from < to && content.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && content.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        return new int[]{from, to};
+    }
+
+    // String.lastIndexOf(needle, fromIndex) on the substring content[lower, upper), in content coordinates; -1 if absent.
+    private static int lastIndexOf(CharSequence content, String needle, int fromIndex, int lower, int upper) {
+        for (int i = Math.min(fromIndex, upper - needle.length()); i >= lower; i--) {
+            boolean match = true;
+            for (int j = 0; j < needle.length(); j++) {
+                if (content.charAt(i + j) != needle.charAt(j)) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class Heading {
+        final int start;
+        final int end;
+        final String title;
+
+        Heading(int start, int end, String title) {
+            this.start = start;
+            this.end = end;
+            this.title = title;
+        }
+    }
 }
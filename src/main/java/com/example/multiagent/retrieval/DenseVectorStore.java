@@ -0,0 +1,40 @@
+package com.example.multiagent.retrieval;
+
+import java.util.List;
+import java.util.Locale;
+
+// All vectors are L2-normalised on insert, so cosine similarity is a plain dot product.
+public interface DenseVectorStore {
+
+    int size();
+
+    int dimension();
+
+    // Dot product of a normalised query against stored vector id.
+    float dot(float[] query, int id);
+
+    // Dot product between two stored vectors.
+    float dot(int a, int b);
+
+    // Normalised (and for quantised stores, dequantised) copy of a stored vector.
+    float[] vector(int id);
+
+    // True when vector(id) returns the normalised vector as inserted; false for quantised stores, whose vectors
+    // should not be fed into another store (the quantisation error would compound).
+    boolean exact();
+
+    long sizeInBytes();
+
+    String name();
+
+    static DenseVectorStore create(String type, List<float[]> vectors, SimilarityKernel kernel) {
+        switch (type.trim().toLowerCase(Locale.ROOT)) {
+            case "float32":
+                return new Float32VectorStore(vectors, kernel);
+            case "int8":
+                return new Int8VectorStore(vectors, kernel);
+            default:
+                throw new IllegalArgumentException("Unknown retrieval.vector-store.type: " + type);
+        }
+    }
+}
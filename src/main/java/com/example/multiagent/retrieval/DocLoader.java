@@ -1,49 +1,279 @@
 package com.example.multiagent.retrieval;
 
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @Component
 public class DocLoader {
     private static final String DOCS_DIR = "./docs";
+    private static final int COPY_BUFFER_CHARS = 64 * 1024;
+    private static final long MAX_CORPUS_CHARS = Integer.MAX_VALUE / 2;
+
+    // The corpus file holds every document as UTF-16BE, so the mapped bytes read directly as a CharBuffer with
+    // the same char offsets a String would have (regex and the chunker work on it unchanged).
+    private final Path corpusPath;
+    private final ForkJoinPool ingestPool;
+    private volatile Map<String, Object> ingestStats = null;
+
+    public DocLoader(
+            @Value("${retrieval.corpus.path:./data/corpus.bin}") String corpusPath,
+            @Value("${retrieval.ingest.parallelism:0}") int ingestParallelism) {
+        this.corpusPath = Paths.get(corpusPath);
+        this.ingestPool = new ForkJoinPool(ingestParallelism > 0 ? ingestParallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    // Documents as read-only views into the memory-mapped corpus file, in path order; the text stays off the heap.
+    // Files are decoded in parallel on the ingest pool, each straight into its own region of the corpus file.
+    // Falls back to loadAllDocuments() if the corpus file cannot be written or mapped.
+    public Map<String, CharSequence> loadCorpus() {
+        Map<String, CharSequence> documents = new LinkedHashMap<>();
+        List<Path> files = listDocumentFiles();
+        if (files.isEmpty()) {
+            return documents;
+        }
+
+        long startNanos = System.nanoTime();
+        try {
+            // A UTF-8 file never decodes to more chars than it has bytes, so reserving one char per byte gives
+            // every document a fixed region without a sequential pass; the unused tail of a region stays a hole.
+            int n = files.size();
+            long[] sizes = new long[n];
+            long[] starts = new long[n];
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                sizes[i] = Files.size(files.get(i));
+                starts[i] = total;
+                total += sizes[i];
+            }
+            if (total > MAX_CORPUS_CHARS) {
+                throw new IllegalStateException("corpus exceeds " + MAX_CORPUS_CHARS + " chars, the limit of a single mapping");
+            }
+
+            int[] lengths = new int[n];
+            String[] onHeap = new String[n];
+            Arrays.fill(lengths, -1);
+            Path tmp = corpusPath.resolveSibling(corpusPath.getFileName() + ".tmp");
+            Path dir = corpusPath.toAbsolutePath().getParent();
+            if (dir != null) {
+                Files.createDirectories(dir);
+            }
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ingestPool.invoke(new ForEachTask(0, n, i -> copyIntoCorpus(files.get(i), sizes[i], starts[i], out, lengths, onHeap, i)));
+            }
+            Files.move(tmp, corpusPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            CharBuffer corpus = mapCorpus();
+            for (int i = 0; i < n; i++) {
+                // Like loadAllDocuments(), a later file with the same id replaces an earlier one.
+                if (lengths[i] >= 0) {
+                    documents.put(documentId(files.get(i)), corpus.slice((int) starts[i], lengths[i]));
+                } else if (onHeap[i] != null) {
+                    documents.put(documentId(files.get(i)), onHeap[i]);
+                }
+            }
+            recordIngest(documents.size(), total, startNanos);
+            System.out.println("Document corpus: mapped " + documents.size() + " documents (" + total + " bytes) from " + corpusPath
+                    + " in " + ingestStats.get("millis") + " ms, " + ingestStats.get("mbPerSecond") + " MB/s");
+            return documents;
+        } catch (IOException | IllegalStateException e) {
+            System.err.println("Error building document corpus " + corpusPath + ", loading documents onto the heap: " + e.getMessage());
+            documents.putAll(loadAllDocuments());
+            return documents;
+        }
+    }
 
     public Map<String, String> loadAllDocuments() {
+        long startNanos = System.nanoTime();
+        List<Path> files = listDocumentFiles();
+        String[] texts = new String[files.size()];
+        long[] sizes = new long[files.size()];
+        ingestPool.invoke(new ForEachTask(0, files.size(), i -> {
+            try {
+                sizes[i] = Files.size(files.get(i));
+                texts[i] = Files.readString(files.get(i));
+            } catch (IOException e) {
+                System.err.println("Error loading document " + files.get(i) + ": " + e.getMessage());
+            }
+        }));
+
+        Map<String, String> documents = new LinkedHashMap<>();
+        long bytes = 0;
+        for (int i = 0; i < texts.length; i++) {
+            if (texts[i] != null) {
+                documents.put(documentId(files.get(i)), texts[i]);
+                bytes += sizes[i];
+            }
+        }
+        recordIngest(documents.size(), bytes, startNanos);
+        return documents;
+    }
+
+    // Last full load: documents, bytes read, wall time and throughput.
+    public Map<String, Object> getIngestStats() {
+        return ingestStats;
+    }
+
+    // Also used to chunk the documents after a full load.
+    ForkJoinPool getIngestPool() {
+        return ingestPool;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ingestPool.shutdownNow();
+    }
+
+    // Current content of the given documents, read onto the heap (the mapped corpus is only rebuilt on startup).
+    // Ids without a file are absent from the result.
+    public Map<String, String> loadDocuments(Collection<String> docIds) {
+        Set<String> wanted = new HashSet<>(docIds);
         Map<String, String> documents = new HashMap<>();
+        for (Path path : listDocumentFiles()) {
+            String docId = documentId(path);
+            if (wanted.contains(docId)) {
+                try {
+                    documents.put(docId, Files.readString(path));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Error loading document " + path, e);
+                }
+            }
+        }
+        return documents;
+    }
+
+    public List<String> getDocumentIds() {
+        return listDocumentFiles().stream().map(DocLoader::documentId).distinct().collect(Collectors.toList());
+    }
+
+    public Path getDocsPath() {
+        return Paths.get(DOCS_DIR);
+    }
+
+    static boolean isDocumentFile(Path path) {
+        return path.toString().endsWith(".md") || path.toString().endsWith(".txt");
+    }
+
+    static String documentId(Path path) {
+        return path.getFileName().toString().replaceFirst("[.][^.]+$", "");
+    }
+
+    private List<Path> listDocumentFiles() {
         Path docsPath = Paths.get(DOCS_DIR);
-        
         if (!Files.exists(docsPath)) {
-            return documents;
+            return new ArrayList<>();
         }
 
+        // Sorted, so document (and therefore chunk) order does not depend on directory listing order
         try (Stream<Path> paths = Files.walk(docsPath)) {
-            paths.filter(Files::isRegularFile)
-                 .filter(p -> p.toString().endsWith(".md") || p.toString().endsWith(".txt"))
-                 .forEach(path -> {
-                     try {
-                         String content = Files.readString(path);
-                         String docId = path.getFileName().toString().replaceFirst("[.][^.]+$", "");
-                         documents.put(docId, content);
-                     } catch (IOException e) {
-                         System.err.println("Error loading document " + path + ": " + e.getMessage());
-                     }
-                 });
+            return paths.filter(Files::isRegularFile)
+                        .filter(DocLoader::isDocumentFile)
+                        .sorted()
+                        .collect(Collectors.toList());
         } catch (IOException e) {
             System.err.println("Error reading docs directory: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    // Decodes one file into chars [start, start + reserved) of the corpus file. A file that grew past its reserved
+    // region since it was listed is read onto the heap instead.
+    private static void copyIntoCorpus(Path path, long reserved, long start, FileChannel out, int[] lengths, String[] onHeap, int i) {
+        int bufferChars = (int) Math.max(1, Math.min(COPY_BUFFER_CHARS, reserved));
+        char[] chars = new char[bufferChars];
+        ByteBuffer bytes = ByteBuffer.allocate(2 * bufferChars); // big-endian, i.e. UTF-16BE
+        long written = 0;
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            int read;
+            while ((read = in.read(chars)) != -1) {
+                if (written + read > reserved) {
+                    onHeap[i] = Files.readString(path);
+                    return;
+                }
+                bytes.clear();
+                bytes.asCharBuffer().put(chars, 0, read);
+                bytes.limit(2 * read);
+                long position = 2 * (start + written);
+                while (bytes.hasRemaining()) {
+                    position += out.write(bytes, position);
+                }
+                written += read;
+            }
+            lengths[i] = (int) written;
+        } catch (IOException e) {
+            System.err.println("Error loading document " + path + ": " + e.getMessage());
         }
+    }
 
-        return documents;
+    private void recordIngest(int documents, long bytes, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("documents", documents);
+        stats.put("bytes", bytes);
+        stats.put("millis", nanos / 1_000_000);
+        stats.put("mbPerSecond", nanos == 0 ? 0.0 : Math.round(bytes / (nanos / 1e9) / (1024 * 1024) * 10) / 10.0);
+        stats.put("parallelism", ingestPool.getParallelism());
+        ingestStats = stats;
     }
 
-    public List<String> getDocumentIds() {
-        return new ArrayList<>(loadAllDocuments().keySet());
+    private CharBuffer mapCorpus() throws IOException {
+        // The mapping stays valid after the channel is closed; it is released when the buffer is collected.
+        try (FileChannel channel = FileChannel.open(corpusPath, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return mapped.asCharBuffer();
+        }
+    }
+
+    // Runs action(i) for every i in [from, to), splitting the range in halves across the pool.
+    private static class ForEachTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final IntConsumer action;
+
+        ForEachTask(int from, int to, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                for (int i = from; i < to; i++) {
+                    action.accept(i);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ForEachTask(from, mid, action), new ForEachTask(mid, to, action));
+        }
     }
 }
@@ -0,0 +1,138 @@
+package com.example.multiagent.retrieval;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+// Watches the docs directory tree and hands changed document ids to Retriever.reindexDocuments.
+// Events are collected until the tree has been quiet for the debounce window, so an editor's save burst
+// (or a bulk copy) becomes one update. A failed update keeps its ids and is retried after retryInterval.
+@Component
+public class DocsWatcher {
+    private final Retriever retriever;
+    private final DocLoader docLoader;
+    private final long debounceMillis;
+    private final long retryMillis;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final WatchService watchService;
+    private final Thread watcher;
+
+    @Autowired
+    public DocsWatcher(
+            Retriever retriever,
+            DocLoader docLoader,
+            @Value("${retrieval.watch.enabled:true}") boolean enabled,
+            @Value("${retrieval.watch.debounce:PT0.5S}") Duration debounce,
+            @Value("${retrieval.watch.retry-interval:PT30S}") Duration retryInterval) {
+        this.retriever = retriever;
+        this.docLoader = docLoader;
+        this.debounceMillis = Math.max(1, debounce.toMillis());
+        this.retryMillis = Math.max(1, retryInterval.toMillis());
+
+        Path docsPath = docLoader.getDocsPath();
+        WatchService service = null;
+        if (enabled && Files.isDirectory(docsPath)) {
+            try {
+                service = docsPath.getFileSystem().newWatchService();
+                registerTree(service, docsPath);
+            } catch (IOException e) {
+                System.err.println("Not watching " + docsPath + " for changes: " + e.getMessage());
+                service = null;
+            }
+        }
+        this.watchService = service;
+        this.watcher = new Thread(this::watchLoop, "docs-watcher");
+        this.watcher.setDaemon(true);
+        if (service != null) {
+            this.watcher.start();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // shutting down anyway
+            }
+            watcher.interrupt();
+        }
+    }
+
+    private void watchLoop() {
+        Set<String> pending = new LinkedHashSet<>();
+        boolean retrying = false;
+        try {
+            while (true) {
+                WatchKey key = pending.isEmpty()
+                        ? watchService.take()
+                        : watchService.poll(retrying ? retryMillis : debounceMillis, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    collect(key, pending);
+                    continue;
+                }
+                try {
+                    retriever.reindexDocuments(pending);
+                    pending.clear();
+                    retrying = false;
+                } catch (RuntimeException e) {
+                    System.err.println("Reindexing " + pending + " failed, retrying in " + retryMillis + " ms: " + e.getMessage());
+                    retrying = true;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutdown
+        }
+    }
+
+    private void collect(WatchKey key, Set<String> pending) {
+        Path dir = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || dir == null) {
+                rescanAll(pending);
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    registerTree(watchService, path);
+                } catch (IOException e) {
+                    System.err.println("Not watching " + path + " for changes: " + e.getMessage());
+                }
+                rescanAll(pending); // files may have landed before the directory was registered
+            } else if (DocLoader.isDocumentFile(path)) {
+                pending.add(DocLoader.documentId(path));
+            } else if (event.kind() == ENTRY_DELETE) {
+                rescanAll(pending); // possibly a directory; its documents produce no events of their own
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    // Every indexed and every present document; reindexing an unchanged one re-chunks it but embeds nothing.
+    private void rescanAll(Set<String> pending) {
+        pending.addAll(retriever.getIndexedDocumentIds());
+        pending.addAll(docLoader.getDocumentIds());
+    }
+
+    private void registerTree(WatchService service, Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path dir : (Iterable<Path>) paths.filter(Files::isDirectory)::iterator) {
+                directories.put(dir.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+            }
+        }
+    }
+}
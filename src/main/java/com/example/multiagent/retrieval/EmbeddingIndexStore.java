@@ -0,0 +1,325 @@
+package com.example.multiagent.retrieval;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+// Embedding vectors by content key, so restarts and edits re-embed only chunks whose content changed.
+// Version 3 files are a header followed by length-prefixed, CRC-checked records up to the end of the file: new
+// vectors are appended, a later record for a key supersedes an earlier one, and reading stops at a torn or corrupt
+// record (crash mid-append), keeping the records before it. Every vector must have the dimension of the first.
+// The file is rewritten with only the live entries when it can not be appended to or superseded records pile up.
+@Component
+public class EmbeddingIndexStore {
+    private static final int MAGIC = 0x4D41454D; // "MAEM"
+    private static final int VERSION_1 = 1; // header with an entry count; still read
+    private static final int VERSION_2 = 2; // records without a checksum; still read
+    private static final int VERSION = 3;
+    private static final int MAX_DIMENSIONS = 65536;
+    private static final int MAX_RECORD_BYTES = 1024 * 1024;
+
+    // Per-thread UTF-8 encoder and output slice for hashing chunk text without copying it onto the heap.
+    // Malformed input is replaced like String.getBytes does, so keys match those of earlier versions.
+    private static final ThreadLocal<TextEncoder> TEXT_ENCODER = ThreadLocal.withInitial(TextEncoder::new);
+
+    // Entries are keyed by a hash of embedding model + section title + chunk text.
+    // Loads and saves are serialised: the index builder and document reindexes both go through here.
+    private final Path indexPath;
+    // What the last load or write found on disk (guarded by this): the model of a version 2 file that ends with a
+    // valid record, or null when the file must be rewritten before anything is appended; its record count and
+    // vector dimension.
+    private String appendableModel = null;
+    private long records = 0;
+    private int dimensions = 0;
+
+    public EmbeddingIndexStore(@Value("${retrieval.embedding-index.path:./data/embedding-index.bin}") String indexPath) {
+        this.indexPath = Paths.get(indexPath);
+    }
+
+    public synchronized Map<String, Entry> load(String embeddingModel) {
+        Map<String, Entry> entries = new HashMap<>();
+        appendableModel = null;
+        records = 0;
+        dimensions = 0;
+        if (!Files.isRegularFile(indexPath)) {
+            return entries;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != VERSION && version != VERSION_2 && version != VERSION_1) {
+                System.err.println("Embedding index " + indexPath + " has unknown format, ignoring it");
+                return entries;
+            }
+            String model = in.readUTF();
+            if (!model.equals(embeddingModel)) {
+                System.err.println("Embedding index " + indexPath + " was built with model " + model + ", ignoring it");
+                return entries;
+            }
+
+            if (version == VERSION_1) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    readEntry(in, entries);
+                }
+                return entries;
+            }
+            try {
+                while (true) {
+                    in.mark(1);
+                    if (in.read() < 0) {
+                        break;
+                    }
+                    in.reset();
+                    if (version == VERSION) {
+                        readRecord(in, entries);
+                    } else {
+                        readEntry(in, entries);
+                    }
+                    records++;
+                }
+                appendableModel = version == VERSION ? model : null;
+            } catch (IOException e) {
+                // EOFException for a torn record; the records before it are kept either way
+                System.err.println("Embedding index " + indexPath + " ends with a truncated or corrupt record after "
+                        + records + " records, ignoring the rest: " + e);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading embedding index " + indexPath + ": " + e.getMessage());
+            entries.clear();
+        }
+        return entries;
+    }
+
+    // Adds newly embedded entries, appending them to the file when it allows it. The file is rewritten with just
+    // the entries for liveKeys when it can not be appended to (missing, older version, another model, torn tail,
+    // vectors of another dimension) or would hold more than twice as many records as there are live chunks.
+    public synchronized void update(String embeddingModel, Map<String, Entry> added, Set<String> liveKeys) {
+        if (added.isEmpty()) {
+            return;
+        }
+        if (!embeddingModel.equals(appendableModel)) {
+            load(embeddingModel); // learns whether the file can be appended to
+        }
+        if (embeddingModel.equals(appendableModel) && records + added.size() <= 2L * liveKeys.size() && sameDimensions(added)) {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexPath.toFile(), true)))) {
+                for (Map.Entry<String, Entry> e : added.entrySet()) {
+                    writeRecord(out, e.getKey(), e.getValue());
+                }
+                records += added.size();
+                return;
+            } catch (IOException e) {
+                appendableModel = null; // possibly torn now; rewritten below
+                System.err.println("Error appending to embedding index " + indexPath + ", rewriting it: " + e.getMessage());
+            }
+        }
+
+        Map<String, Entry> entries = load(embeddingModel);
+        entries.keySet().retainAll(liveKeys);
+        int addedDimensions = added.values().iterator().next().getVector().length;
+        entries.values().removeIf(entry -> entry.getVector().length != addedDimensions);
+        entries.putAll(added);
+        save(embeddingModel, entries);
+    }
+
+    private synchronized void save(String embeddingModel, Map<String, Entry> entries) {
+        appendableModel = null;
+        Path tmp = null;
+        try {
+            Path parent = indexPath.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+
+            // Write to a temp file of its own first so a crash never leaves a truncated index behind.
+            tmp = indexPath.resolveSibling(indexPath.getFileName() + "." + ProcessHandle.current().pid() + "-" + System.nanoTime() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(embeddingModel);
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    writeRecord(out, e.getKey(), e.getValue());
+                }
+            }
+            Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            appendableModel = embeddingModel;
+            records = entries.size();
+            dimensions = entries.isEmpty() ? 0 : entries.values().iterator().next().getVector().length;
+        } catch (IOException e) {
+            System.err.println("Error writing embedding index " + indexPath + ": " + e.getMessage());
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                    // best effort
+                }
+            }
+        }
+    }
+
+    // True when every added vector has the dimension of those already in the file (a model that changed its output
+    // size under the same name); otherwise the file is rewritten with the new vectors only.
+    private boolean sameDimensions(Map<String, Entry> added) {
+        for (Entry entry : added.values()) {
+            if (dimensions != 0 && entry.getVector().length != dimensions) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Frame: payload length, CRC32 of the payload, payload (an entry as readEntry reads it).
+    private void readRecord(DataInputStream in, Map<String, Entry> entries) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_RECORD_BYTES) {
+            throw new IOException("invalid record length " + length);
+        }
+        int expectedCrc = in.readInt();
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException("record checksum mismatch");
+        }
+        readEntry(new DataInputStream(new ByteArrayInputStream(bytes)), entries);
+    }
+
+    private static void writeRecord(DataOutputStream out, String key, Entry entry) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64 + Float.BYTES * entry.getVector().length);
+        writeEntry(new DataOutputStream(payload), key, entry);
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        out.writeInt(bytes.length);
+        out.writeInt((int) crc.getValue());
+        out.write(bytes);
+    }
+
+    // The dimension is checked before anything is allocated, so a corrupt or foreign file reads as an IOException.
+    private void readEntry(DataInputStream in, Map<String, Entry> entries) throws IOException {
+        String key = in.readUTF();
+        String docId = in.readUTF();
+        String sectionTitle = in.readUTF();
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_DIMENSIONS || (dimensions != 0 && length != dimensions)) {
+            throw new IOException("invalid vector dimension " + length + (dimensions != 0 ? ", expected " + dimensions : ""));
+        }
+        float[] vector = new float[length];
+        for (int d = 0; d < length; d++) {
+            vector[d] = in.readFloat();
+        }
+        dimensions = length;
+        entries.put(key, new Entry(docId, sectionTitle, vector));
+    }
+
+    private static void writeEntry(DataOutputStream out, String key, Entry entry) throws IOException {
+        out.writeUTF(key);
+        out.writeUTF(entry.getDocId());
+        out.writeUTF(entry.getSectionTitle());
+        out.writeInt(entry.getVector().length);
+        for (float v : entry.getVector()) {
+            out.writeFloat(v);
+        }
+    }
+
+    public static String contentKey(String embeddingModel, Chunk chunk) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(embeddingModel.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(chunk.getSectionTitle().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            TEXT_ENCODER.get().update(digest, chunk.textSequence());
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static class TextEncoder {
+        final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final ByteBuffer slice = ByteBuffer.allocate(8192);
+
+        // Feeds the UTF-8 encoding of text to the digest a slice at a time.
+        void update(MessageDigest digest, CharSequence text) {
+            CharBuffer in = text instanceof CharBuffer ? ((CharBuffer) text).duplicate() : CharBuffer.wrap(text);
+            encoder.reset();
+            try {
+                CoderResult result;
+                do {
+                    result = encoder.encode(in, slice, true);
+                    if (result.isError()) {
+                        result.throwException();
+                    }
+                    drain(digest);
+                } while (result.isOverflow());
+                while (encoder.flush(slice).isOverflow()) {
+                    drain(digest);
+                }
+                drain(digest);
+            } catch (CharacterCodingException e) {
+                throw new IllegalStateException("UTF-8 encoding failed", e); // cannot happen with REPLACE
+            } finally {
+                slice.clear();
+            }
+        }
+
+        private void drain(MessageDigest digest) {
+            slice.flip();
+            digest.update(slice);
+            slice.clear();
+        }
+    }
+
+    public static class Entry {
+        private final String docId;
+        private final String sectionTitle;
+        private final float[] vector;
+
+        public Entry(String docId, String sectionTitle, float[] vector) {
+            this.docId = docId;
+            this.sectionTitle = sectionTitle;
+            this.vector = vector;
+        }
+
+        public String getDocId() {
+            return docId;
+        }
+
+        public String getSectionTitle() {
+            return sectionTitle;
+        }
+
+        public float[] getVector() {
+            return vector;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.multiagent.retrieval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+public class ExactVectorIndex implements VectorIndex {
+    private DenseVectorStore store;
+
+    @Override
+    public void build(DenseVectorStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public List<Neighbor> search(float[] query, int k) {
+        if (k <= 0 || store == null) {
+            return new ArrayList<>();
+        }
+
+        // Min-heap of the best k so far: O(n log k) instead of sorting every hit.
+        PriorityQueue<Neighbor> top = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(a.getScore(), b.getScore()));
+        int size = store.size();
+        for (int i = 0; i < size; i++) {
+            double similarity = store.dot(query, i);
+            if (top.size() < k) {
+                top.add(new Neighbor(i, similarity));
+            } else if (similarity > top.peek().getScore()) {
+                top.poll();
+                top.add(new Neighbor(i, similarity));
+            }
+        }
+
+        List<Neighbor> result = new ArrayList<>(top);
+        result.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return store == null ? 0 : store.size();
+    }
+
+    @Override
+    public String name() {
+        return "exact";
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.multiagent.retrieval;
+
+import java.util.List;
+
+// Packs every vector into one contiguous float array (row-major), so a scan walks memory linearly.
+public class Float32VectorStore implements DenseVectorStore {
+    private final SimilarityKernel kernel;
+    private final int size;
+    private final int dimension;
+    private final float[] data;
+
+    public Float32VectorStore(List<float[]> vectors, SimilarityKernel kernel) {
+        this.kernel = kernel;
+        this.size = vectors.size();
+        this.dimension = size == 0 ? 0 : vectors.get(0).length;
+        this.data = new float[size * dimension];
+        for (int i = 0; i < size; i++) {
+            float[] vector = vectors.get(i);
+            if (vector.length != dimension) {
+                throw new IllegalArgumentException("Vector " + i + " has dimension " + vector.length + ", expected " + dimension);
+            }
+            float[] normalized = VectorMath.normalize(vector);
+            System.arraycopy(normalized, 0, data, i * dimension, dimension);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public float dot(float[] query, int id) {
+        return kernel.dot(query, 0, data, id * dimension, dimension);
+    }
+
+    @Override
+    public float dot(int a, int b) {
+        return kernel.dot(data, a * dimension, data, b * dimension, dimension);
+    }
+
+    @Override
+    public float[] vector(int id) {
+        float[] vector = new float[dimension];
+        System.arraycopy(data, id * dimension, vector, 0, dimension);
+        return vector;
+    }
+
+    @Override
+    public boolean exact() {
+        return true;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return (long) data.length * Float.BYTES;
+    }
+
+    @Override
+    public String name() {
+        return "float32";
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.multiagent.retrieval;
+
+import java.util.*;
+
+// Hierarchical Navigable Small World graph (Malkov & Yashunin) over cosine similarity.
+// Built once, then searched concurrently; the graph is never mutated after build().
+public class HnswVectorIndex implements VectorIndex {
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelMultiplier;
+    private final Random random = new Random(42);
+
+    private DenseVectorStore store;
+    private Node[] nodes = new Node[0];
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswVectorIndex(int m, int efConstruction, int efSearch) {
+        if (m < 2 || efConstruction < 1 || efSearch < 1) {
+            throw new IllegalArgumentException("Invalid HNSW parameters: M=" + m + ", efConstruction=" + efConstruction + ", efSearch=" + efSearch);
+        }
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1.0 / Math.log(m);
+    }
+
+    @Override
+    public void build(DenseVectorStore store) {
+        this.store = store;
+        this.nodes = new Node[store.size()];
+        this.entryPoint = -1;
+        this.maxLevel = -1;
+
+        for (int i = 0; i < store.size(); i++) {
+            insert(i);
+        }
+    }
+
+    @Override
+    public List<Neighbor> search(float[] query, int k) {
+        if (k <= 0 || entryPoint < 0) {
+            return new ArrayList<>();
+        }
+
+        int current = entryPoint;
+        double currentScore = similarity(query, current);
+        for (int level = maxLevel; level > 0; level--) {
+            Neighbor best = greedyClosest(query, current, currentScore, level);
+            current = best.getId();
+            currentScore = best.getScore();
+        }
+
+        PriorityQueue<Neighbor> found = searchLayer(query, List.of(new Neighbor(current, currentScore)), Math.max(efSearch, k), 0);
+        List<Neighbor> result = new ArrayList<>(found);
+        result.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+        return result.size() > k ? new ArrayList<>(result.subList(0, k)) : result;
+    }
+
+    @Override
+    public int size() {
+        return store == null ? 0 : store.size();
+    }
+
+    @Override
+    public String name() {
+        return "hnsw";
+    }
+
+    private void insert(int id) {
+        int level = (int) Math.floor(-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+        nodes[id] = new Node(level, m, maxM0);
+
+        if (entryPoint < 0) {
+            entryPoint = id;
+            maxLevel = level;
+            return;
+        }
+
+        float[] query = store.vector(id);
+        int current = entryPoint;
+        double currentScore = similarity(query, current);
+        for (int l = maxLevel; l > level; l--) {
+            Neighbor best = greedyClosest(query, current, currentScore, l);
+            current = best.getId();
+            currentScore = best.getScore();
+        }
+
+        List<Neighbor> entryPoints = List.of(new Neighbor(current, currentScore));
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            PriorityQueue<Neighbor> candidates = searchLayer(query, entryPoints, efConstruction, l);
+            List<Neighbor> sorted = new ArrayList<>(candidates);
+            sorted.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+
+            int maxLinks = l == 0 ? maxM0 : m;
+            for (Neighbor neighbor : selectNeighbors(sorted, m)) {
+                nodes[id].addLink(l, neighbor.getId());
+                connect(neighbor.getId(), id, l, maxLinks);
+            }
+            entryPoints = sorted;
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = id;
+        }
+    }
+
+    private void connect(int from, int to, int level, int maxLinks) {
+        Node node = nodes[from];
+        if (node.size(level) < maxLinks) {
+            node.addLink(level, to);
+            return;
+        }
+
+        // Neighbour list is full: re-select the best maxLinks among existing links plus the new one.
+        List<Neighbor> candidates = new ArrayList<>(maxLinks + 1);
+        candidates.add(new Neighbor(to, store.dot(from, to)));
+        int[] links = node.links(level);
+        for (int i = 0; i < node.size(level); i++) {
+            candidates.add(new Neighbor(links[i], store.dot(from, links[i])));
+        }
+        candidates.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+
+        node.clear(level);
+        for (Neighbor neighbor : selectNeighbors(candidates, maxLinks)) {
+            node.addLink(level, neighbor.getId());
+        }
+    }
+
+    // Diversity heuristic: keep a candidate only if it is closer to the base than to any already selected
+    // neighbour, then top up with the pruned ones. Candidates must be sorted by descending similarity.
+    private List<Neighbor> selectNeighbors(List<Neighbor> candidates, int limit) {
+        List<Neighbor> selected = new ArrayList<>(limit);
+        List<Neighbor> pruned = new ArrayList<>();
+        for (Neighbor candidate : candidates) {
+            if (selected.size() >= limit) {
+                break;
+            }
+            boolean diverse = true;
+            for (Neighbor chosen : selected) {
+                if (store.dot(candidate.getId(), chosen.getId()) > candidate.getScore()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+            } else {
+                pruned.add(candidate);
+            }
+        }
+        for (int i = 0; i < pruned.size() && selected.size() < limit; i++) {
+            selected.add(pruned.get(i));
+        }
+        return selected;
+    }
+
+    private Neighbor greedyClosest(float[] query, int start, double startScore, int level) {
+        int current = start;
+        double currentScore = startScore;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Node node = nodes[current];
+            int[] links = node.links(level);
+            for (int i = 0; i < node.size(level); i++) {
+                double score = similarity(query, links[i]);
+                if (score > currentScore) {
+                    currentScore = score;
+                    current = links[i];
+                    changed = true;
+                }
+            }
+        }
+        return new Neighbor(current, currentScore);
+    }
+
+    // Returns a min-heap (worst on top) of up to ef nearest nodes found on the given layer.
+    private PriorityQueue<Neighbor> searchLayer(float[] query, List<Neighbor> entryPoints, int ef, int level) {
+        BitSet visited = new BitSet(store.size());
+        PriorityQueue<Neighbor> candidates = new PriorityQueue<>((a, b) -> Double.compare(b.getScore(), a.getScore()));
+        PriorityQueue<Neighbor> results = new PriorityQueue<>(ef + 1, (a, b) -> Double.compare(a.getScore(), b.getScore()));
+
+        for (Neighbor entry : entryPoints) {
+            if (!visited.get(entry.getId())) {
+                visited.set(entry.getId());
+                candidates.add(entry);
+                results.add(entry);
+                if (results.size() > ef) {
+                    results.poll();
+                }
+            }
+        }
+
+        while (!candidates.isEmpty()) {
+            Neighbor candidate = candidates.poll();
+            if (results.size() >= ef && candidate.getScore() < results.peek().getScore()) {
+                break;
+            }
+
+            Node node = nodes[candidate.getId()];
+            int[] links = node.links(level);
+            for (int i = 0; i < node.size(level); i++) {
+                int neighborId = links[i];
+                if (visited.get(neighborId)) {
+                    continue;
+                }
+                visited.set(neighborId);
+
+                double score = similarity(query, neighborId);
+                if (results.size() < ef || score > results.peek().getScore()) {
+                    Neighbor neighbor = new Neighbor(neighborId, score);
+                    candidates.add(neighbor);
+                    results.add(neighbor);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private double similarity(float[] query, int id) {
+        return store.dot(query, id);
+    }
+
+    private static final class Node {
+        private final int[][] links;
+        private final int[] sizes;
+
+        Node(int level, int m, int maxM0) {
+            this.links = new int[level + 1][];
+            this.sizes = new int[level + 1];
+            for (int l = 0; l <= level; l++) {
+                links[l] = new int[l == 0 ? maxM0 : m];
+            }
+        }
+
+        int[] links(int level) {
+            return level < links.length ? links[level] : new int[0];
+        }
+
+        int size(int level) {
+            return level < sizes.length ? sizes[level] : 0;
+        }
+
+        void addLink(int level, int id) {
+            links[level][sizes[level]++] = id;
+        }
+
+        void clear(int level) {
+            sizes[level] = 0;
+        }
+    }
+}
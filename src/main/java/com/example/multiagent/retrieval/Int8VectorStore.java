@@ -0,0 +1,84 @@
+package com.example.multiagent.retrieval;
+
+import java.util.List;
+
+// Symmetric per-vector scalar quantisation: v[i] ~= codes[i] * scale, codes in [-127, 127].
+// 4x smaller than float32 at a small recall cost.
+public class Int8VectorStore implements DenseVectorStore {
+    private final SimilarityKernel kernel;
+    private final int size;
+    private final int dimension;
+    private final byte[] codes;
+    private final float[] scales;
+
+    public Int8VectorStore(List<float[]> vectors, SimilarityKernel kernel) {
+        this.kernel = kernel;
+        this.size = vectors.size();
+        this.dimension = size == 0 ? 0 : vectors.get(0).length;
+        this.codes = new byte[size * dimension];
+        this.scales = new float[size];
+        for (int i = 0; i < size; i++) {
+            float[] vector = vectors.get(i);
+            if (vector.length != dimension) {
+                throw new IllegalArgumentException("Vector " + i + " has dimension " + vector.length + ", expected " + dimension);
+            }
+            float[] normalized = VectorMath.normalize(vector);
+            float maxAbs = 0f;
+            for (float v : normalized) {
+                maxAbs = Math.max(maxAbs, Math.abs(v));
+            }
+            float scale = maxAbs == 0f ? 1f : maxAbs / 127f;
+            scales[i] = scale;
+            int offset = i * dimension;
+            for (int d = 0; d < dimension; d++) {
+                codes[offset + d] = (byte) Math.round(normalized[d] / scale);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public float dot(float[] query, int id) {
+        return kernel.dot(query, 0, codes, id * dimension, dimension) * scales[id];
+    }
+
+    @Override
+    public float dot(int a, int b) {
+        return kernel.dot(codes, a * dimension, codes, b * dimension, dimension) * scales[a] * scales[b];
+    }
+
+    @Override
+    public float[] vector(int id) {
+        float[] vector = new float[dimension];
+        int offset = id * dimension;
+        float scale = scales[id];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = codes[offset + i] * scale;
+        }
+        return vector;
+    }
+
+    @Override
+    public boolean exact() {
+        return false;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return codes.length + (long) scales.length * Float.BYTES;
+    }
+
+    @Override
+    public String name() {
+        return "int8";
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.multiagent.retrieval;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RetrievalResult {
+    private final String mode;
+    private final List<ScoredChunk> hits;
+    private final long vectorLatencyMillis;
+    private final long lexicalLatencyMillis;
+    private final float[] queryVector;
+
+    // Latencies are -1 when that source was not queried.
+    public RetrievalResult(String mode, List<ScoredChunk> hits, long vectorLatencyMillis, long lexicalLatencyMillis) {
+        this(mode, hits, vectorLatencyMillis, lexicalLatencyMillis, null);
+    }
+
+    public RetrievalResult(String mode, List<ScoredChunk> hits, long vectorLatencyMillis, long lexicalLatencyMillis, float[] queryVector) {
+        this.mode = mode;
+        this.hits = hits;
+        this.vectorLatencyMillis = vectorLatencyMillis;
+        this.lexicalLatencyMillis = lexicalLatencyMillis;
+        this.queryVector = queryVector;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public List<ScoredChunk> getHits() {
+        return hits;
+    }
+
+    public List<Chunk> getChunks() {
+        List<Chunk> chunks = new ArrayList<>(hits.size());
+        for (ScoredChunk hit : hits) {
+            chunks.add(hit.getChunk());
+        }
+        return chunks;
+    }
+
+    public long getVectorLatencyMillis() {
+        return vectorLatencyMillis;
+    }
+
+    public long getLexicalLatencyMillis() {
+        return lexicalLatencyMillis;
+    }
+
+    // L2-normalised query embedding, or null when the vector search was not used.
+    public float[] getQueryVector() {
+        return queryVector;
+    }
+}
@@ -1,244 +1,942 @@
 package com.example.multiagent.retrieval;
 
+import com.example.multiagent.cache.BoundedCache;
+import com.example.multiagent.config.HelpingTask;
+import com.example.multiagent.llm.EmbeddingBatcher;
 import com.example.multiagent.llm.LlmClient;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 @Component
 public class Retriever {
-    private static final int TOP_K = 4;
-    private static final int EMBEDDING_BATCH_SIZE = 32;
+    // BUILDING: vectors not built yet, searches use BM25. READY: the vector index is live (or not needed in
+    // lexical mode). DEGRADED: the vector build failed; searches use BM25 while it is retried with backoff.
+    public enum IndexState { BUILDING, READY, DEGRADED }
+
     private static final double MIN_COSINE_SIMILARITY = 0.15;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
 
     private final DocLoader docLoader;
     private final Chunker chunker;
     private final LlmClient llmClient;
-    private List<Chunk> allChunks = null;
-    private List<EmbeddedChunk> embeddedChunks = null;
-    private boolean embeddingsAttempted = false;
+    private final EmbeddingBatcher embeddingBatcher;
+    private final EmbeddingIndexStore embeddingIndexStore;
+    private final SimilarityKernel similarityKernel;
+    private final String vectorStoreType;
+    private final String vectorIndexType;
+    private final int hnswM;
+    private final int hnswEfConstruction;
+    private final int hnswEfSearch;
+    private final int recallSampleSize;
+    private final int defaultTopK;
+    private final String mode;
+    private final String fusion;
+    private final int rrfK;
+    private final double vectorWeight;
+    private final int hybridCandidates;
+    private final int embeddingConcurrency;
+    private final int embeddingMaxBatchTokens;
+    private final int embeddingMaxBatchSize;
+    private final int embeddingMaxAttempts;
+    private final long embeddingRetryBackoffMillis;
+    private final long buildRetryMillis;
+    private final long buildMaxRetryMillis;
+    private final ScheduledExecutorService indexBuilder;
+    private final ExecutorService searchExecutor;
+    private final BoundedCache<String, float[]> queryEmbeddingCache;
+    private final List<Consumer<String>> documentListeners = new CopyOnWriteArrayList<>();
+    // Replaced as a whole on every (re)index; a search reads it once, so it never sees a half-built index.
+    private volatile IndexSnapshot index;
+    private volatile long chunkMillis = 0;
+    private volatile long vectorIndexBuildMillis = 0;
+    private volatile Double vectorIndexRecall = null;
+    private volatile IndexState indexState;
+    private volatile long lexicalReadyMillis = 0;
+    private volatile long vectorsReadyMillis = -1;
+    private volatile String lastBuildError = null;
+    private volatile long nextBuildRetryAt = 0; // epoch millis, 0 when none is scheduled
+    private final long createdAt = System.currentTimeMillis();
+    private long buildBackoffMillis; // index-builder thread only
+    private final AtomicLong buildAttempts = new AtomicLong();
+    private final AtomicLong buildFailures = new AtomicLong();
+
+    private final AtomicLong embeddingBatches = new AtomicLong();
+    private final AtomicLong embeddingRetries = new AtomicLong();
+    private final AtomicLong embeddingFailedBatches = new AtomicLong();
+
+    private final AtomicLong reindexUpdates = new AtomicLong();
+    private final AtomicLong reindexFailures = new AtomicLong();
+    private final AtomicLong reindexNanos = new AtomicLong();
+    private final AtomicLong reindexChunksTouched = new AtomicLong();
+    private final AtomicLong gapFillChunksEmbedded = new AtomicLong();
+    private volatile Map<String, Object> lastReindex = null;
 
     @Autowired
-    public Retriever(DocLoader docLoader, Chunker chunker, LlmClient llmClient) {
+    public Retriever(
+            DocLoader docLoader,
+            Chunker chunker,
+            LlmClient llmClient,
+            EmbeddingBatcher embeddingBatcher,
+            EmbeddingIndexStore embeddingIndexStore,
+            @Qualifier("llmExecutor") ExecutorService searchExecutor,
+            @Value("${retrieval.similarity-kernel:auto}") String similarityKernel,
+            @Value("${retrieval.vector-store.type:float32}") String vectorStoreType,
+            @Value("${retrieval.vector-index.type:exact}") String vectorIndexType,
+            @Value("${retrieval.vector-index.hnsw.m:16}") int hnswM,
+            @Value("${retrieval.vector-index.hnsw.ef-construction:200}") int hnswEfConstruction,
+            @Value("${retrieval.vector-index.hnsw.ef-search:64}") int hnswEfSearch,
+            @Value("${retrieval.vector-index.recall-sample-size:200}") int recallSampleSize,
+            @Value("${retrieval.top-k:4}") int defaultTopK,
+            @Value("${retrieval.mode:vector}") String mode,
+            @Value("${retrieval.hybrid.fusion:rrf}") String fusion,
+            @Value("${retrieval.hybrid.rrf-k:60}") int rrfK,
+            @Value("${retrieval.hybrid.vector-weight:0.5}") double vectorWeight,
+            @Value("${retrieval.hybrid.candidates:20}") int hybridCandidates,
+            @Value("${retrieval.embedding.concurrency:4}") int embeddingConcurrency,
+            @Value("${retrieval.embedding.max-batch-tokens:8192}") int embeddingMaxBatchTokens,
+            @Value("${retrieval.embedding.max-batch-size:128}") int embeddingMaxBatchSize,
+            @Value("${retrieval.embedding.max-attempts:3}") int embeddingMaxAttempts,
+            @Value("${retrieval.embedding.retry-backoff:PT1S}") Duration embeddingRetryBackoff,
+            @Value("${retrieval.index-build.retry-backoff:PT10S}") Duration buildRetryBackoff,
+            @Value("${retrieval.index-build.max-retry-backoff:PT10M}") Duration buildMaxRetryBackoff,
+            @Value("${retrieval.query-cache.max-entries:10000}") int queryCacheMaxEntries,
+            @Value("${retrieval.query-cache.max-bytes:67108864}") long queryCacheMaxBytes,
+            @Value("${retrieval.query-cache.ttl:PT1H}") Duration queryCacheTtl) {
         this.docLoader = docLoader;
         this.chunker = chunker;
         this.llmClient = llmClient;
+        this.embeddingBatcher = embeddingBatcher;
+        this.embeddingIndexStore = embeddingIndexStore;
+        this.similarityKernel = SimilarityKernel.create(similarityKernel);
+        this.vectorStoreType = vectorStoreType;
+        this.vectorIndexType = vectorIndexType.trim().toLowerCase(Locale.ROOT);
+        this.hnswM = hnswM;
+        this.hnswEfConstruction = hnswEfConstruction;
+        this.hnswEfSearch = hnswEfSearch;
+        this.recallSampleSize = recallSampleSize;
+        this.defaultTopK = defaultTopK;
+        this.mode = mode.trim().toLowerCase(Locale.ROOT);
+        this.fusion = fusion.trim().toLowerCase(Locale.ROOT);
+        this.rrfK = rrfK;
+        this.vectorWeight = vectorWeight;
+        this.hybridCandidates = hybridCandidates;
+        this.embeddingConcurrency = Math.max(1, embeddingConcurrency);
+        this.embeddingMaxBatchTokens = Math.max(1, embeddingMaxBatchTokens);
+        this.embeddingMaxBatchSize = Math.max(1, embeddingMaxBatchSize);
+        this.embeddingMaxAttempts = Math.max(1, embeddingMaxAttempts);
+        this.embeddingRetryBackoffMillis = embeddingRetryBackoff.toMillis();
+        this.buildRetryMillis = Math.max(1, buildRetryBackoff.toMillis());
+        this.buildMaxRetryMillis = Math.max(buildRetryMillis, buildMaxRetryBackoff.toMillis());
+        this.buildBackoffMillis = buildRetryMillis;
+        if (!List.of("vector", "lexical", "hybrid").contains(this.mode)) {
+            throw new IllegalArgumentException("Unknown retrieval.mode: " + mode);
+        }
+        if (!List.of("rrf", "weighted").contains(this.fusion)) {
+            throw new IllegalArgumentException("Unknown retrieval.hybrid.fusion: " + fusion);
+        }
+        this.searchExecutor = searchExecutor;
+        this.queryEmbeddingCache = new BoundedCache<>(queryCacheMaxEntries, queryCacheMaxBytes, queryCacheTtl,
+                (key, vector) -> 64L + 2L * key.length() + (long) Float.BYTES * vector.length);
         loadChunks();
+
+        // Embedding runs off the startup path; until it finishes searches are answered from BM25.
+        this.indexBuilder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "index-builder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (this.mode.equals("lexical")) {
+            this.indexState = IndexState.READY;
+        } else {
+            this.indexState = IndexState.BUILDING;
+            this.indexBuilder.execute(this::buildVectors);
+        }
     }
 
+    // Documents, chunks and BM25 are local work and are ready before the first request.
     private void loadChunks() {
-        if (allChunks == null) {
-            Map<String, String> documents = docLoader.loadAllDocuments();
-            documents.keySet().removeIf(docId -> {
-                String id = docId.toLowerCase(Locale.ROOT);
-                return id.contains("billing") || id.equals("billing_policy");
-            });
-            allChunks = chunker.chunkAll(documents);
+        Map<String, CharSequence> documents = docLoader.loadCorpus();
+        documents.keySet().removeIf(docId -> !isIndexed(docId));
+        long chunkStart = System.nanoTime();
+        Map<String, List<Chunk>> chunksByDoc = new LinkedHashMap<>(chunker.chunkByDocument(documents, docLoader.getIngestPool()));
+        chunkMillis = elapsedMillis(chunkStart);
+        index = lexicalSnapshot(chunksByDoc);
+        lexicalReadyMillis = System.currentTimeMillis() - createdAt;
+    }
+
+    // Runs on the index-builder thread. A successful build is published only if no reindex replaced the snapshot
+    // it started from; otherwise it goes again on the newer snapshot, reusing the vectors just computed (they are
+    // in the embedding index). Failures, and builds that left chunks without vectors, are retried with backoff.
+    // Once vectors are live it only runs after a reindex: it embeds the chunks published without a vector and
+    // rebuilds the vector store and graph without the removed vectors, while searches use the previous graph.
+    private void buildVectors() {
+        nextBuildRetryAt = 0;
+        if (!hasVectorGaps(index)) {
+            buildBackoffMillis = buildRetryMillis; // a reindex since the last attempt removed the chunks that were missing
+            return;
+        }
+        buildAttempts.incrementAndGet();
+        try {
+            IndexSnapshot base;
+            IndexSnapshot built;
+            while (true) {
+                base = index;
+                // A retry that only fills gaps in a live index must embed something, or there is nothing to publish
+                built = withVectors(base, new HashMap<>(base.contentKeys), base, base.vectorStore != null);
+                synchronized (this) {
+                    if (index == base) {
+                        index = built;
+                        break;
+                    }
+                }
+            }
+            if (base.vectorStore != null) {
+                gapFillChunksEmbedded.addAndGet(built.embedded);
+            }
+            if (indexState != IndexState.READY) {
+                vectorsReadyMillis = System.currentTimeMillis() - createdAt;
+                System.out.println("Vector index ready after " + vectorsReadyMillis + " ms");
+            }
+            indexState = IndexState.READY;
+            lastBuildError = null;
+            if (built.vectorCount < built.chunks.size()) {
+                scheduleBuildRetry();
+            } else {
+                buildBackoffMillis = buildRetryMillis;
+            }
+        } catch (Exception e) {
+            // Якщо embeddings не вдалося ініціалізувати — зберігаємо keyword-fallback.
+            buildFailures.incrementAndGet();
+            lastBuildError = e.getMessage();
+            if (index.vectorStore == null) {
+                indexState = IndexState.DEGRADED;
+            }
+            System.err.println((index.vectorStore == null ? "Embeddings build failed, using keyword retrieval" : "Embedding gap fill failed, new chunks are found by keyword only")
+                    + " until the retry in " + buildBackoffMillis + " ms: " + e.getMessage());
+            scheduleBuildRetry();
+        }
+    }
+
+    // Chunks without a vector, or vectors of removed chunks still in the store and graph.
+    private static boolean hasVectorGaps(IndexSnapshot snapshot) {
+        return snapshot.vectorStore == null || snapshot.vectorCount < snapshot.chunks.size()
+                || snapshot.vectorCount < snapshot.vectorStore.size();
+    }
+
+    // Runs the gap fill after a reindex, unless a retry is already scheduled: the API failed recently, and that retry
+    // picks up the new gaps on its own schedule.
+    private void requestGapFill() {
+        indexBuilder.execute(() -> {
+            if (nextBuildRetryAt == 0) {
+                buildVectors();
+            }
+        });
+    }
+
+    private void scheduleBuildRetry() {
+        nextBuildRetryAt = System.currentTimeMillis() + buildBackoffMillis;
+        indexBuilder.schedule(this::buildVectors, buildBackoffMillis, TimeUnit.MILLISECONDS);
+        buildBackoffMillis = Math.min(buildBackoffMillis * 2, buildMaxRetryMillis);
+    }
+
+    public IndexState getIndexState() {
+        return indexState;
+    }
+
+    // Readiness view of the index: state, how long each stage took after startup and the retry schedule.
+    public Map<String, Object> getIndexStatus() {
+        IndexSnapshot index = this.index;
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("state", indexState.name());
+        status.put("mode", mode);
+        status.put("servingVectors", index.vectorIndex != null);
+        status.put("chunks", index.chunks.size());
+        status.put("chunksWithoutVectors", index.chunks.size() - index.vectorCount);
+        status.put("lexicalReadyMs", lexicalReadyMillis);
+        status.put("vectorsReadyMs", vectorsReadyMillis);
+        status.put("gapFillChunksEmbedded", gapFillChunksEmbedded.get());
+        status.put("buildAttempts", buildAttempts.get());
+        status.put("buildFailures", buildFailures.get());
+        status.put("lastError", lastBuildError);
+        long retryAt = nextBuildRetryAt;
+        status.put("nextRetryInMs", retryAt == 0 ? null : Math.max(0, retryAt - System.currentTimeMillis()));
+        return status;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        indexBuilder.shutdownNow();
+    }
+
+    // Billing docs are served by BillingTools only.
+    private static boolean isIndexed(String docId) {
+        String id = docId.toLowerCase(Locale.ROOT);
+        return !(id.contains("billing") || id.equals("billing_policy"));
+    }
+
+    // Re-chunks the given documents from disk (dropping those whose file is gone) and swaps in a new snapshot
+    // right away: BM25 covers the new text, and the live vector store and graph are kept as they are, with the
+    // vectors of unchanged chunks remapped to their new positions and those of removed chunks tombstoned. Chunks
+    // with new content are published without a vector; the index builder embeds them and rebuilds the graph, so
+    // neither an embedding outage nor the graph build holds back an edit. Searches already running keep the
+    // snapshot they started with. Updates are serialised.
+    public synchronized void reindexDocuments(Collection<String> docIds) {
+        long start = System.nanoTime();
+        IndexSnapshot current = index;
+        Map<String, List<Chunk>> chunksByDoc = new LinkedHashMap<>(current.chunksByDoc);
+        Map<String, String[]> contentKeys = new HashMap<>(current.contentKeys);
+        Map<String, String> documents = docLoader.loadDocuments(docIds);
+        List<String> changed = new ArrayList<>();
+        int removed = 0;
+        int added = 0;
+
+        for (String docId : new LinkedHashSet<>(docIds)) {
+            if (!isIndexed(docId)) {
+                continue;
+            }
+            String content = documents.get(docId);
+            List<Chunk> rechunked = content == null ? null : chunker.chunk(docId, content);
+            if (sameChunks(chunksByDoc.get(docId), rechunked)) {
+                continue; // unchanged (or absent before and after), e.g. picked up by a directory rescan
+            }
+            // put() keeps an existing document in place, so chunk order stays stable across updates
+            List<Chunk> previous = content == null ? chunksByDoc.remove(docId) : chunksByDoc.put(docId, rechunked);
+            contentKeys.remove(docId);
+            removed += previous == null ? 0 : previous.size();
+            added += content == null ? 0 : chunksByDoc.get(docId).size();
+            changed.add(docId);
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        IndexSnapshot updated;
+        try {
+            updated = lexicalSnapshot(chunksByDoc);
+            if (current.vectorStore != null) {
+                updated = withLiveVectors(updated, contentKeys, current);
+            }
+        } catch (RuntimeException e) {
+            reindexFailures.incrementAndGet();
+            throw e;
+        }
+        index = updated;
+        // Before the first build completes there is nothing to carry over; that build moves on to this snapshot
+        int pending = updated.vectorStore == null ? 0 : updated.chunks.size() - updated.vectorCount;
+        if (updated.vectorStore != null && hasVectorGaps(updated)) {
+            requestGapFill();
+        }
+
+        long nanos = System.nanoTime() - start;
+        reindexUpdates.incrementAndGet();
+        reindexNanos.addAndGet(nanos);
+        reindexChunksTouched.addAndGet(removed + added);
+        Map<String, Object> last = new LinkedHashMap<>();
+        last.put("documents", changed);
+        last.put("millis", nanos / 1_000_000);
+        last.put("chunksRemoved", removed);
+        last.put("chunksAdded", added);
+        last.put("chunksPendingEmbedding", pending);
+        lastReindex = last;
+        System.out.println("Reindexed " + changed + " in " + nanos / 1_000_000 + " ms: " + removed + " chunks removed, "
+                + added + " added, " + pending + " left to embed");
+
+        for (String docId : changed) {
+            for (Consumer<String> listener : documentListeners) {
+                listener.accept(docId);
+            }
         }
+    }
 
-        if (!embeddingsAttempted) {
-            embeddingsAttempted = true;
-            try {
-                embeddedChunks = createEmbeddedChunks(allChunks);
-            } catch (Exception e) {
-                // Якщо embeddings не вдалося ініціалізувати — зберігаємо keyword-fallback.
-                System.err.println("Embeddings init failed, falling back to keyword retrieval: " + e.getMessage());
-                embeddedChunks = null;
+    private static boolean sameChunks(List<Chunk> a, List<Chunk> b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).getSectionTitle().equals(b.get(i).getSectionTitle())
+                    || a.get(i).length() != b.get(i).length()
+                    || CharSequence.compare(a.get(i).textSequence(), b.get(i).textSequence()) != 0) {
+                return false;
             }
         }
+        return true;
+    }
+
+    // Called with the id of every document whose chunks changed, after the new snapshot is live.
+    public void addDocumentChangeListener(Consumer<String> listener) {
+        documentListeners.add(listener);
+    }
+
+    public Set<String> getIndexedDocumentIds() {
+        return new LinkedHashSet<>(index.chunksByDoc.keySet());
+    }
+
+    private IndexSnapshot lexicalSnapshot(Map<String, List<Chunk>> chunksByDoc) {
+        List<Chunk> chunks = new ArrayList<>();
+        for (List<Chunk> docChunks : chunksByDoc.values()) {
+            chunks.addAll(docChunks);
+        }
+        return new IndexSnapshot(chunksByDoc, Map.of(), null, chunks, new Bm25Index(chunks), null, null, null, 0);
+    }
+
+    // contentKeys holds embedding keys already computed per document; keys for the other documents are added.
+    // Vectors of chunks whose content is unchanged are taken from live, the snapshot being replaced, or from disk.
+    private IndexSnapshot withVectors(IndexSnapshot snapshot, Map<String, String[]> contentKeys, IndexSnapshot live, boolean requireProgress) {
+        String[] keys = contentKeys(snapshot, contentKeys);
+        EmbeddedChunks embedded = createEmbeddings(snapshot.chunks, keys, live, requireProgress);
+        DenseVectorStore store = DenseVectorStore.create(vectorStoreType, embedded.vectors, similarityKernel);
+        // Recall is sampled when vectors first go live; updates keep the index type and parameters
+        return new IndexSnapshot(snapshot.chunksByDoc, contentKeys, keys, snapshot.chunks, snapshot.lexicalIndex,
+                store, buildVectorIndex(store, live.vectorIndex == null), embedded.chunkIds, embedded.embedded);
+    }
+
+    // The live vector store and graph over the new chunks, with no embedding, disk access or graph build: each
+    // vector goes to the chunk that now has its content key, or is tombstoned (-1) when there is none.
+    private IndexSnapshot withLiveVectors(IndexSnapshot snapshot, Map<String, String[]> contentKeys, IndexSnapshot live) {
+        String[] keys = contentKeys(snapshot, contentKeys);
+        Map<String, Integer> positions = new HashMap<>(keys.length * 2);
+        for (int i = keys.length - 1; i >= 0; i--) {
+            positions.put(keys[i], i); // first position of each key
+        }
+        boolean[] taken = new boolean[keys.length];
+        int[] chunkIds = new int[live.vectorStore.size()];
+        for (int v = 0; v < chunkIds.length; v++) {
+            int chunkId = live.chunkId(v);
+            Integer position = chunkId < 0 ? null : positions.get(live.keys[chunkId]);
+            // A duplicate of an already mapped chunk is left for the index builder
+            chunkIds[v] = position == null || taken[position] ? -1 : position;
+            if (chunkIds[v] >= 0) {
+                taken[position] = true;
+            }
+        }
+        return new IndexSnapshot(snapshot.chunksByDoc, contentKeys, keys, snapshot.chunks, snapshot.lexicalIndex,
+                live.vectorStore, live.vectorIndex, chunkIds, 0);
+    }
+
+    // Content key per chunk position, computing and adding to contentKeys those of documents it does not hold.
+    private String[] contentKeys(IndexSnapshot snapshot, Map<String, String[]> contentKeys) {
+        String embeddingModel = llmClient.getEmbeddingModel();
+        String[] keys = new String[snapshot.chunks.size()];
+        int offset = 0;
+        for (Map.Entry<String, List<Chunk>> entry : snapshot.chunksByDoc.entrySet()) {
+            List<Chunk> docChunks = entry.getValue();
+            String[] docKeys = contentKeys.get(entry.getKey());
+            if (docKeys == null) {
+                docKeys = new String[docChunks.size()];
+                for (int i = 0; i < docKeys.length; i++) {
+                    docKeys[i] = EmbeddingIndexStore.contentKey(embeddingModel, docChunks.get(i));
+                }
+                contentKeys.put(entry.getKey(), docKeys);
+            }
+            System.arraycopy(docKeys, 0, keys, offset, docKeys.length);
+            offset += docKeys.length;
+        }
+        return keys;
     }
 
     public List<Chunk> retrieve(String query, int topK) {
-        loadChunks();
-        if (allChunks.isEmpty()) {
-            return new ArrayList<>();
+        return search(query, topK).getChunks();
+    }
+
+    public RetrievalResult search(String query) {
+        return search(query, defaultTopK);
+    }
+
+    public RetrievalResult search(String query, int topK) {
+        IndexSnapshot index = this.index;
+        if (index.chunks.isEmpty()) {
+            return new RetrievalResult(mode, new ArrayList<>(), -1, -1);
+        }
+
+        boolean vectorAvailable = index.vectorIndex != null && index.vectorCount > 0;
+        if (mode.equals("hybrid") && vectorAvailable) {
+            return hybridSearch(index, query, topK);
         }
 
         // 1) Спробувати vector RAG через embeddings.
-        if (embeddedChunks != null && !embeddedChunks.isEmpty()) {
-            List<Chunk> embeddingResults = retrieveByEmbeddings(query, topK);
-            if (embeddingResults != null) {
-                return embeddingResults;
+        long vectorMillis = -1;
+        if (mode.equals("vector") && vectorAvailable) {
+            long start = System.nanoTime();
+            VectorHits vector = retrieveByEmbeddings(index, query, topK);
+            vectorMillis = elapsedMillis(start);
+            if (vector != null) {
+                List<ScoredChunk> hits = new ArrayList<>();
+                for (VectorIndex.Neighbor neighbor : vector.neighbors) {
+                    hits.add(new ScoredChunk(index.chunks.get(index.chunkId(neighbor.getId())), neighbor.getScore(), neighbor.getScore(), null));
+                }
+                return new RetrievalResult("vector", hits, vectorMillis, -1, vector.queryVector);
             }
         }
 
         // 2) Fallback: keyword-based retrieval (щоб система не падала).
-        return retrieveByKeyword(query, topK);
+        long start = System.nanoTime();
+        List<ScoredChunk> hits = new ArrayList<>();
+        for (Bm25Index.ScoredDoc doc : index.lexicalIndex.searchOrFill(query, topK)) {
+            hits.add(new ScoredChunk(index.chunks.get(doc.getId()), doc.getScore(), null, doc.getScore()));
+        }
+        return new RetrievalResult("lexical", hits, vectorMillis, elapsedMillis(start));
+    }
+
+    // Runs the vector search (embedding round-trip included) on the search pool while BM25 runs on the caller thread;
+    // if the pool has not started it by then, the caller runs it too.
+    private RetrievalResult hybridSearch(IndexSnapshot index, String query, int topK) {
+        int candidates = Math.max(topK, hybridCandidates);
+        long vectorStart = System.nanoTime();
+        HelpingTask<TimedVectorHits> vectorFuture = HelpingTask.fork(searchExecutor,
+                () -> new TimedVectorHits(retrieveByEmbeddings(index, query, candidates), elapsedMillis(vectorStart)));
+
+        long lexicalStart = System.nanoTime();
+        List<Bm25Index.ScoredDoc> lexicalHits = index.lexicalIndex.search(query, candidates);
+        long lexicalMillis = elapsedMillis(lexicalStart);
+
+        TimedVectorHits vector = vectorFuture.join();
+        List<VectorIndex.Neighbor> vectorHits = vector.hits != null ? vector.hits.neighbors : new ArrayList<>();
+
+        Map<Integer, double[]> fused = new LinkedHashMap<>(); // id -> {fused, vectorScore, lexicalScore}
+        double maxLexical = lexicalHits.isEmpty() ? 1.0 : lexicalHits.get(0).getScore();
+        for (int rank = 0; rank < vectorHits.size(); rank++) {
+            VectorIndex.Neighbor hit = vectorHits.get(rank);
+            double contribution = fusion.equals("rrf") ? 1.0 / (rrfK + rank + 1) : vectorWeight * hit.getScore();
+            double[] entry = fused.computeIfAbsent(index.chunkId(hit.getId()), id -> new double[]{0.0, Double.NaN, Double.NaN});
+            entry[0] += contribution;
+            entry[1] = hit.getScore();
+        }
+        for (int rank = 0; rank < lexicalHits.size(); rank++) {
+            Bm25Index.ScoredDoc hit = lexicalHits.get(rank);
+            double contribution = fusion.equals("rrf") ? 1.0 / (rrfK + rank + 1) : (1.0 - vectorWeight) * hit.getScore() / maxLexical;
+            double[] entry = fused.computeIfAbsent(hit.getId(), id -> new double[]{0.0, Double.NaN, Double.NaN});
+            entry[0] += contribution;
+            entry[2] = hit.getScore();
+        }
+
+        List<ScoredChunk> hits = new ArrayList<>(fused.size());
+        for (Map.Entry<Integer, double[]> entry : fused.entrySet()) {
+            double[] scores = entry.getValue();
+            hits.add(new ScoredChunk(
+                    index.chunks.get(entry.getKey()),
+                    scores[0],
+                    Double.isNaN(scores[1]) ? null : scores[1],
+                    Double.isNaN(scores[2]) ? null : scores[2]));
+        }
+        hits.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+        if (hits.size() > topK) {
+            hits = new ArrayList<>(hits.subList(0, topK));
+        }
+        return new RetrievalResult("hybrid", hits, vector.millis, lexicalMillis, vector.hits != null ? vector.hits.queryVector : null);
     }
 
-    private List<Chunk> retrieveByEmbeddings(String query, int topK) {
+    // Null signals "failed to use embeddings"; the query vector is null when there was nothing to embed.
+    private VectorHits retrieveByEmbeddings(IndexSnapshot index, String query, int topK) {
         try {
             if (query == null || query.trim().isEmpty()) {
-                return new ArrayList<>();
+                return new VectorHits(null, new ArrayList<>());
             }
 
-            double[] queryVector = llmClient.embedTexts(List.of(query)).get(0);
-            double queryNorm = vectorNorm(queryVector);
-            if (queryNorm == 0.0) {
-                return new ArrayList<>();
+            float[] queryVector = embedQuery(query);
+            if (VectorMath.isZero(queryVector)) {
+                return new VectorHits(null, new ArrayList<>());
             }
 
-            List<ScoredChunk> scoredChunks = new ArrayList<>();
-            for (EmbeddedChunk embedded : embeddedChunks) {
-                double similarity = cosineSimilarity(queryVector, queryNorm, embedded.vector, embedded.norm);
-                if (similarity >= MIN_COSINE_SIMILARITY) {
-                    scoredChunks.add(new ScoredChunk(embedded.chunk, similarity));
+            // Tombstoned vectors are still in the graph until the index builder replaces it, so ask for that many more
+            int tombstones = index.vectorStore.size() - index.vectorCount;
+            List<VectorIndex.Neighbor> result = new ArrayList<>();
+            for (VectorIndex.Neighbor neighbor : index.vectorIndex.search(queryVector, topK + tombstones)) {
+                if (neighbor.getScore() >= MIN_COSINE_SIMILARITY && index.chunkId(neighbor.getId()) >= 0 && result.size() < topK) {
+                    result.add(neighbor);
                 }
             }
-
-            scoredChunks.sort((a, b) -> Double.compare(b.score, a.score));
-            List<Chunk> result = new ArrayList<>();
-            int limit = Math.min(topK, scoredChunks.size());
-            for (int i = 0; i < limit; i++) {
-                result.add(scoredChunks.get(i).chunk);
-            }
-            return result;
+            return new VectorHits(queryVector, result);
         } catch (Exception e) {
             return null; // signal "failed to use embeddings"
         }
     }
 
-    private List<Chunk> retrieveByKeyword(String query, int topK) {
-        List<ScoredChunk> scoredChunks = new ArrayList<>();
-        Set<String> queryTerms = tokenize(query.toLowerCase(Locale.ROOT));
-
-        for (Chunk chunk : allChunks) {
-            double score = scoreChunk(chunk, queryTerms);
-            scoredChunks.add(new ScoredChunk(chunk, score));
+    // Normalised query embedding, served from the cache when the same question was embedded recently.
+    private float[] embedQuery(String query) {
+        String key = llmClient.getEmbeddingModel() + "\u0000" + normalizeQuery(query);
+        float[] cached = queryEmbeddingCache.get(key);
+        if (cached != null) {
+            return cached;
         }
+        float[] vector = VectorMath.normalize(VectorMath.toFloats(embeddingBatcher.embed(query)));
+        queryEmbeddingCache.put(key, vector);
+        return vector;
+    }
 
-        scoredChunks.sort((a, b) -> Double.compare(b.score, a.score));
-        List<Chunk> result = new ArrayList<>();
-        int limit = Math.min(topK, scoredChunks.size());
-        for (int i = 0; i < limit; i++) {
-            result.add(scoredChunks.get(i).chunk);
-        }
-        return result;
+    private static String normalizeQuery(String query) {
+        return WHITESPACE.matcher(query.trim().toLowerCase(Locale.ROOT)).replaceAll(" ");
     }
 
-    private List<EmbeddedChunk> createEmbeddedChunks(List<Chunk> chunks) {
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    // keys[i] is the EmbeddingIndexStore content key of chunks[i]. Chunks whose batch still fails after all
+    // attempts are left without a vector (BM25 still finds them) and are embedded again on the next build.
+    // The build fails as a whole if no chunk has a vector, or with requireProgress if none of the chunks that
+    // needed embedding got one (the API is down; a gap fill with nothing to publish is retried with backoff).
+    private EmbeddedChunks createEmbeddings(List<Chunk> chunks, String[] keys, IndexSnapshot live, boolean requireProgress) {
         if (chunks == null || chunks.isEmpty()) {
-            return new ArrayList<>();
+            return new EmbeddedChunks(new ArrayList<>(), null, 0);
         }
 
         int n = chunks.size();
-        double[][] vectors = new double[n][];
-
-        // Векторизуємо контент + секцію, щоб embeddings краще "розуміли" структуру документа.
-        List<String> texts = new ArrayList<>(n);
-        for (Chunk chunk : chunks) {
-            texts.add(chunk.getSectionTitle() + "\n" + chunk.getText());
+        float[][] vectors = new float[n][];
+
+        // Unchanged chunks keep the vectors of the live snapshot, and the on-disk index has those of earlier runs
+        // and of attempts whose snapshot a reindex replaced. A quantised store only approximates its vectors, so
+        // with one the originals on disk come first, or the error would compound with every rebuild. Only chunks
+        // whose content hash is in neither are embedded.
+        String embeddingModel = llmClient.getEmbeddingModel();
+        Map<String, Integer> liveVectorIds = liveVectorIds(live);
+        boolean exactLive = live.vectorStore != null && live.vectorStore.exact();
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Integer vectorId = exactLive ? liveVectorIds.get(keys[i]) : null;
+            if (vectorId != null) {
+                vectors[i] = live.vectorStore.vector(vectorId);
+            } else {
+                missing.add(i);
+            }
         }
+        if (!missing.isEmpty()) {
+            Map<String, EmbeddingIndexStore.Entry> storedEntries = embeddingIndexStore.load(embeddingModel);
+            List<Integer> notStored = new ArrayList<>();
+            for (int i : missing) {
+                EmbeddingIndexStore.Entry stored = storedEntries.get(keys[i]);
+                Integer vectorId = liveVectorIds.get(keys[i]);
+                if (stored != null) {
+                    vectors[i] = stored.getVector();
+                } else if (vectorId != null) {
+                    vectors[i] = live.vectorStore.vector(vectorId); // not on disk (a write failed): better than re-embedding
+                } else {
+                    notStored.add(i);
+                }
+            }
+            missing = notStored;
+        }
+
+        List<List<Integer>> batches = planEmbeddingBatches(chunks, missing);
+        Throwable lastFailure = embedBatches(chunks, batches, vectors);
 
-        for (int start = 0; start < texts.size(); start += EMBEDDING_BATCH_SIZE) {
-            int end = Math.min(start + EMBEDDING_BATCH_SIZE, texts.size());
-            List<String> batch = texts.subList(start, end);
-            List<double[]> batchVectors = llmClient.embedTexts(batch);
-            for (int i = 0; i < batchVectors.size(); i++) {
-                vectors[start + i] = batchVectors.get(i);
+        int failed = 0;
+        for (int i : missing) {
+            if (vectors[i] == null) {
+                failed++;
+            }
+        }
+        System.out.println("Embedding index: reused " + (n - missing.size()) + " of " + n + " chunk vectors, embedded "
+                + (missing.size() - failed) + " in " + batches.size() + " batches" + (failed > 0 ? ", " + failed + " failed" : ""));
+        if (failed > 0 && (failed == n || (requireProgress && failed == missing.size()))) {
+            throw new RuntimeException("Embedding failed for all " + failed + " chunks: " + (lastFailure == null ? "" : lastFailure.getMessage()), lastFailure);
+        }
+        // Only the new vectors are written; the store drops entries of deleted or edited chunks when it compacts
+        Map<String, EmbeddingIndexStore.Entry> added = new LinkedHashMap<>();
+        for (int i : missing) {
+            if (vectors[i] != null) {
+                Chunk chunk = chunks.get(i);
+                added.put(keys[i], new EmbeddingIndexStore.Entry(chunk.getDocId(), chunk.getSectionTitle(), vectors[i]));
             }
         }
+        embeddingIndexStore.update(embeddingModel, added, new HashSet<>(Arrays.asList(keys)));
 
-        List<EmbeddedChunk> embedded = new ArrayList<>(n);
+        List<float[]> embedded = new ArrayList<>(n - failed);
+        int[] chunkIds = failed == 0 ? null : new int[n - failed];
         for (int i = 0; i < n; i++) {
-            double[] vector = vectors[i];
-            if (vector == null) {
-                throw new RuntimeException("Missing embedding vector for chunk index " + i);
+            if (vectors[i] != null) {
+                if (chunkIds != null) {
+                    chunkIds[embedded.size()] = i;
+                }
+                embedded.add(vectors[i]);
             }
-            double norm = vectorNorm(vector);
-            embedded.add(new EmbeddedChunk(chunks.get(i), vector, norm));
         }
+        return new EmbeddedChunks(embedded, chunkIds, missing.size() - failed);
+    }
 
-        return embedded;
+    private static Map<String, Integer> liveVectorIds(IndexSnapshot live) {
+        Map<String, Integer> liveVectorIds = new HashMap<>();
+        if (live.vectorStore != null) {
+            for (int v = 0; v < live.vectorStore.size(); v++) {
+                int chunkId = live.chunkId(v);
+                if (chunkId >= 0) {
+                    liveVectorIds.put(live.keys[chunkId], v);
+                }
+            }
+        }
+        return liveVectorIds;
     }
 
-    public List<Chunk> retrieve(String query) {
-        return retrieve(query, TOP_K);
+    // Consecutive chunks up to embeddingMaxBatchTokens (estimated) or embeddingMaxBatchSize inputs per request;
+    // a single chunk over the token limit gets a batch of its own.
+    private List<List<Integer>> planEmbeddingBatches(List<Chunk> chunks, List<Integer> missing) {
+        List<List<Integer>> batches = new ArrayList<>();
+        List<Integer> batch = new ArrayList<>();
+        long batchTokens = 0;
+        for (int i : missing) {
+            Chunk chunk = chunks.get(i);
+            long tokens = estimateTokens(chunk.getSectionTitle().length() + 1 + chunk.length());
+            if (!batch.isEmpty() && (batchTokens + tokens > embeddingMaxBatchTokens || batch.size() >= embeddingMaxBatchSize)) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchTokens = 0;
+            }
+            batch.add(i);
+            batchTokens += tokens;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
     }
 
-    private double scoreChunk(Chunk chunk, Set<String> queryTerms) {
-        Set<String> chunkTokens = tokenize(chunk.getText().toLowerCase());
-        Set<String> titleTokens = tokenize(chunk.getSectionTitle().toLowerCase());
+    // About four characters per token for English text; used only to size batches.
+    private static long estimateTokens(long chars) {
+        return (chars + 3) / 4;
+    }
 
-        double score = 0.0;
+    // Keeps up to embeddingConcurrency batches in flight. Returns the last failure of a batch that exhausted its
+    // attempts (its chunks keep a null vector), or null when every batch succeeded.
+    private Throwable embedBatches(List<Chunk> chunks, List<List<Integer>> batches, float[][] vectors) {
+        Semaphore inFlight = new Semaphore(embeddingConcurrency);
+        List<CompletableFuture<Throwable>> results = new ArrayList<>(batches.size());
+        for (List<Integer> batch : batches) {
+            inFlight.acquireUninterruptibly();
+            embeddingBatches.incrementAndGet();
+            results.add(embedBatch(chunks, batch, vectors, 1)
+                    .handle((ignored, failure) -> {
+                        inFlight.release();
+                        if (failure != null) {
+                            embeddingFailedBatches.incrementAndGet();
+                            System.err.println("Embedding batch of " + batch.size() + " chunks failed after " + embeddingMaxAttempts
+                                    + " attempts: " + failure.getMessage());
+                        }
+                        return failure;
+                    }));
+        }
 
-        // Count matches in text
-        int matches = 0;
-        int uniqueMatches = 0;
-        for (String term : queryTerms) {
-            boolean found = false;
-            for (String token : chunkTokens) {
-                if (token.contains(term) || term.contains(token)) {
-                    matches++;
-                    found = true;
-                }
+        Throwable lastFailure = null;
+        for (CompletableFuture<Throwable> result : results) {
+            Throwable failure = result.join();
+            if (failure != null) {
+                lastFailure = failure;
             }
-            if (found) uniqueMatches++;
+        }
+        return lastFailure;
+    }
+
+    // Texts are materialised per attempt, so at most embeddingConcurrency batches of a mapped corpus are on the heap.
+    private CompletableFuture<Void> embedBatch(List<Chunk> chunks, List<Integer> batch, float[][] vectors, int attempt) {
+        // Векторизуємо контент + секцію, щоб embeddings краще "розуміли" структуру документа.
+        List<String> texts = new ArrayList<>(batch.size());
+        for (int i : batch) {
+            Chunk chunk = chunks.get(i);
+            texts.add(chunk.getSectionTitle() + "\n" + chunk.getText());
         }
 
-        score += matches * 1.0;
-        score += uniqueMatches * 2.0; // Boost for unique matches
+        return llmClient.embedTextsAsync(texts)
+                .thenAccept(batchVectors -> {
+                    if (batchVectors.size() != batch.size()) {
+                        throw new IllegalStateException("Expected " + batch.size() + " embeddings, got " + batchVectors.size());
+                    }
+                    for (int i = 0; i < batchVectors.size(); i++) {
+                        vectors[batch.get(i)] = VectorMath.toFloats(batchVectors.get(i));
+                    }
+                })
+                .exceptionallyCompose(failure -> {
+                    if (attempt >= embeddingMaxAttempts) {
+                        return CompletableFuture.failedFuture(failure);
+                    }
+                    embeddingRetries.incrementAndGet();
+                    long delay = embeddingRetryBackoffMillis << (attempt - 1);
+                    return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                            .thenCompose(ignored -> embedBatch(chunks, batch, vectors, attempt + 1));
+                });
+    }
 
-        // Boost if title contains query terms
-        int titleMatches = 0;
-        for (String term : queryTerms) {
-            for (String titleToken : titleTokens) {
-                if (titleToken.contains(term) || term.contains(titleToken)) {
-                    titleMatches++;
-                    break;
-                }
-            }
+    private VectorIndex buildVectorIndex(DenseVectorStore store, boolean measureRecall) {
+        VectorIndex index;
+        switch (vectorIndexType) {
+            case "hnsw":
+                index = new HnswVectorIndex(hnswM, hnswEfConstruction, hnswEfSearch);
+                break;
+            case "exact":
+                index = new ExactVectorIndex();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown retrieval.vector-index.type: " + vectorIndexType);
         }
-        score += titleMatches * 3.0; // Higher boost for title matches
 
-        return score;
+        long start = System.nanoTime();
+        index.build(store);
+        vectorIndexBuildMillis = (System.nanoTime() - start) / 1_000_000;
+
+        if (!(index instanceof ExactVectorIndex) && measureRecall) {
+            vectorIndexRecall = measureRecall(index, store);
+            System.out.println("Vector index " + index.name() + " built over " + store.size() + " chunks in "
+                    + vectorIndexBuildMillis + " ms, recall@" + defaultTopK + " vs exact scan: " + String.format(Locale.ROOT, "%.4f", vectorIndexRecall));
+        }
+        return index;
     }
 
-    private Set<String> tokenize(String text) {
-        Set<String> tokens = new HashSet<>();
-        Pattern pattern = Pattern.compile("\\w+");
-        pattern.matcher(text).results().forEach(m -> tokens.add(m.group().toLowerCase()));
-        return tokens;
+    // Uses a sample of the chunk vectors themselves as queries (leave-one-out, so a vector finding itself does
+    // not count) and compares against the brute-force scan.
+    private double measureRecall(VectorIndex index, DenseVectorStore store) {
+        ExactVectorIndex exact = new ExactVectorIndex();
+        exact.build(store);
+
+        List<Integer> queryIds = new ArrayList<>();
+        int step = Math.max(1, store.size() / Math.max(1, recallSampleSize));
+        for (int i = 0; i < store.size() && queryIds.size() < recallSampleSize; i += step) {
+            queryIds.add(i);
+        }
+        return VectorIndexEvaluator.recallAtKExcludingSelf(index, exact, store, queryIds, defaultTopK);
     }
 
-    private static double vectorNorm(double[] vector) {
-        double sum = 0.0;
-        for (double v : vector) {
-            sum += v * v;
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        IndexSnapshot index = this.index;
+        stats.put("mode", mode);
+        stats.put("indexState", indexState.name());
+        stats.put("documents", index.chunksByDoc.size());
+        stats.put("chunks", index.chunks.size());
+        stats.put("lexicalIndexTerms", index.lexicalIndex.termCount());
+        stats.put("similarityKernel", similarityKernel.name());
+        if (index.vectorStore != null) {
+            stats.put("vectorStore", index.vectorStore.name());
+            stats.put("vectorDimension", index.vectorStore.dimension());
+            stats.put("vectorStoreBytes", index.vectorStore.sizeInBytes());
+        }
+        stats.put("chunksWithoutVectors", index.chunks.size() - index.vectorCount);
+        stats.put("vectorIndex", index.vectorIndex == null ? "none" : index.vectorIndex.name());
+        stats.put("vectorIndexSize", index.vectorIndex == null ? 0 : index.vectorIndex.size());
+        stats.put("vectorTombstones", index.vectorStore == null ? 0 : index.vectorStore.size() - index.vectorCount);
+        stats.put("vectorIndexBuildMillis", vectorIndexBuildMillis);
+        if (vectorIndexRecall != null) {
+            stats.put("recallAtK", vectorIndexRecall);
+            stats.put("recallK", defaultTopK);
         }
-        return Math.sqrt(sum);
+        stats.put("queryEmbeddingCache", queryEmbeddingCache.stats());
+
+        Map<String, Object> embedding = new LinkedHashMap<>();
+        embedding.put("concurrency", embeddingConcurrency);
+        embedding.put("maxBatchTokens", embeddingMaxBatchTokens);
+        embedding.put("batches", embeddingBatches.get());
+        embedding.put("retries", embeddingRetries.get());
+        embedding.put("failedBatches", embeddingFailedBatches.get());
+        stats.put("embedding", embedding);
+
+        Map<String, Object> ingest = new LinkedHashMap<>();
+        if (docLoader.getIngestStats() != null) {
+            ingest.putAll(docLoader.getIngestStats());
+        }
+        ingest.put("chunkMillis", chunkMillis);
+        stats.put("ingest", ingest);
+
+        Map<String, Object> reindex = new LinkedHashMap<>();
+        long updates = reindexUpdates.get();
+        reindex.put("updates", updates);
+        reindex.put("failures", reindexFailures.get());
+        reindex.put("avgMillis", updates == 0 ? 0.0 : reindexNanos.get() / 1_000_000.0 / updates);
+        reindex.put("chunksTouched", reindexChunksTouched.get());
+        reindex.put("last", lastReindex);
+        stats.put("reindex", reindex);
+        return stats;
+    }
+
+    public List<Chunk> retrieve(String query) {
+        return retrieve(query, defaultTopK);
     }
 
-    private static double cosineSimilarity(double[] a, double aNorm, double[] b, double bNorm) {
-        double dot = 0.0;
-        int len = Math.min(a.length, b.length);
-        for (int i = 0; i < len; i++) {
-            dot += a[i] * b[i];
+    // Immutable once published. chunks is the concatenation of chunksByDoc in iteration order, and lexical index
+    // ids are positions in it; vector ids map to positions through vectorChunkIds (null when every chunk has a
+    // vector, i.e. the identity; -1 for a tombstoned vector whose chunk a reindex removed). contentKeys is empty and
+    // keys (content key per chunk position) null when there are no vectors.
+    private static final class IndexSnapshot {
+        final Map<String, List<Chunk>> chunksByDoc;
+        final Map<String, String[]> contentKeys;
+        final String[] keys;
+        final List<Chunk> chunks;
+        final Bm25Index lexicalIndex;
+        final DenseVectorStore vectorStore;
+        final VectorIndex vectorIndex;
+        final int[] vectorChunkIds;
+        final int vectorCount; // vectors not tombstoned, i.e. chunks with a vector
+        final int embedded; // chunks embedded by the API to build this snapshot
+
+        IndexSnapshot(Map<String, List<Chunk>> chunksByDoc, Map<String, String[]> contentKeys, String[] keys, List<Chunk> chunks,
+                      Bm25Index lexicalIndex, DenseVectorStore vectorStore, VectorIndex vectorIndex, int[] vectorChunkIds,
+                      int embedded) {
+            this.chunksByDoc = Collections.unmodifiableMap(chunksByDoc);
+            this.contentKeys = Collections.unmodifiableMap(contentKeys);
+            this.keys = keys;
+            this.chunks = Collections.unmodifiableList(chunks);
+            this.lexicalIndex = lexicalIndex;
+            this.vectorStore = vectorStore;
+            this.vectorIndex = vectorIndex;
+            this.vectorChunkIds = vectorChunkIds;
+            int count = vectorStore == null ? 0 : vectorStore.size();
+            if (vectorChunkIds != null) {
+                for (int chunkId : vectorChunkIds) {
+                    count -= chunkId < 0 ? 1 : 0;
+                }
+            }
+            this.vectorCount = count;
+            this.embedded = embedded;
+        }
+
+        int chunkId(int vectorId) {
+            return vectorChunkIds == null ? vectorId : vectorChunkIds[vectorId];
+        }
+    }
+
+    private static class EmbeddedChunks {
+        final List<float[]> vectors;
+        final int[] chunkIds; // vector id -> chunk position, null when every chunk has a vector
+        final int embedded;
+
+        EmbeddedChunks(List<float[]> vectors, int[] chunkIds, int embedded) {
+            this.vectors = vectors;
+            this.chunkIds = chunkIds;
+            this.embedded = embedded;
         }
-        return dot / (aNorm * bNorm + 1e-12);
     }
 
-    private static class ScoredChunk {
-        Chunk chunk;
-        double score;
+    private static class VectorHits {
+        final float[] queryVector;
+        final List<VectorIndex.Neighbor> neighbors;
 
-        ScoredChunk(Chunk chunk, double score) {
-            this.chunk = chunk;
-            this.score = score;
+        VectorHits(float[] queryVector, List<VectorIndex.Neighbor> neighbors) {
+            this.queryVector = queryVector;
+            this.neighbors = neighbors;
         }
     }
 
-    private static class EmbeddedChunk {
-        Chunk chunk;
-        double[] vector;
-        double norm;
+    private static class TimedVectorHits {
+        final VectorHits hits;
+        final long millis;
 
-        EmbeddedChunk(Chunk chunk, double[] vector, double norm) {
-            this.chunk = chunk;
-            this.vector = vector;
-            this.norm = norm;
+        TimedVectorHits(VectorHits hits, long millis) {
+            this.hits = hits;
+            this.millis = millis;
         }
     }
 }
@@ -0,0 +1,33 @@
+package com.example.multiagent.retrieval;
+
+public class ScoredChunk {
+    private final Chunk chunk;
+    private final double score;
+    private final Double vectorScore;
+    private final Double lexicalScore;
+
+    public ScoredChunk(Chunk chunk, double score, Double vectorScore, Double lexicalScore) {
+        this.chunk = chunk;
+        this.score = score;
+        this.vectorScore = vectorScore;
+        this.lexicalScore = lexicalScore;
+    }
+
+    public Chunk getChunk() {
+        return chunk;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    // Cosine similarity, or null if the chunk did not come from the vector search.
+    public Double getVectorScore() {
+        return vectorScore;
+    }
+
+    // BM25 score, or null if the chunk did not come from the lexical search.
+    public Double getLexicalScore() {
+        return lexicalScore;
+    }
+}
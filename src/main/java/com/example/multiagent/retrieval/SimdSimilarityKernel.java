@@ -0,0 +1,94 @@
+package com.example.multiagent.retrieval;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+public class SimdSimilarityKernel implements SimilarityKernel {
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    // Bytes are widened lane-for-lane, so the byte species is a quarter of the float shape.
+    // On 128-bit hardware that would be 32 bits, which has no species: those loops stay scalar.
+    private static final VectorSpecies<Byte> BYTES = byteSpecies(FLOATS.vectorBitSize() / 4);
+
+    private final ScalarSimilarityKernel scalar = new ScalarSimilarityKernel();
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        int step = FLOATS.length();
+        int upper = FLOATS.loopBound(length);
+        FloatVector acc1 = FloatVector.zero(FLOATS);
+        FloatVector acc2 = FloatVector.zero(FLOATS);
+        int i = 0;
+        // Two accumulators hide the FMA latency.
+        for (; i + step < upper; i += 2 * step) {
+            acc1 = FloatVector.fromArray(FLOATS, a, aOffset + i).fma(FloatVector.fromArray(FLOATS, b, bOffset + i), acc1);
+            acc2 = FloatVector.fromArray(FLOATS, a, aOffset + i + step).fma(FloatVector.fromArray(FLOATS, b, bOffset + i + step), acc2);
+        }
+        for (; i < upper; i += step) {
+            acc1 = FloatVector.fromArray(FLOATS, a, aOffset + i).fma(FloatVector.fromArray(FLOATS, b, bOffset + i), acc1);
+        }
+        float sum = acc1.add(acc2).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float dot(float[] a, int aOffset, byte[] b, int bOffset, int length) {
+        if (BYTES == null) {
+            return scalar.dot(a, aOffset, b, bOffset, length);
+        }
+        int step = FLOATS.length();
+        int upper = FLOATS.loopBound(length);
+        FloatVector acc = FloatVector.zero(FLOATS);
+        int i = 0;
+        for (; i < upper; i += step) {
+            FloatVector codes = (FloatVector) ByteVector.fromArray(BYTES, b, bOffset + i).convertShape(VectorOperators.B2F, FLOATS, 0);
+            acc = FloatVector.fromArray(FLOATS, a, aOffset + i).fma(codes, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        if (BYTES == null || BYTES.length() != INTS.length()) {
+            return scalar.dot(a, aOffset, b, bOffset, length);
+        }
+        int step = INTS.length();
+        int upper = INTS.loopBound(length);
+        IntVector acc = IntVector.zero(INTS);
+        int i = 0;
+        for (; i < upper; i += step) {
+            IntVector va = (IntVector) ByteVector.fromArray(BYTES, a, aOffset + i).convertShape(VectorOperators.B2I, INTS, 0);
+            IntVector vb = (IntVector) ByteVector.fromArray(BYTES, b, bOffset + i).convertShape(VectorOperators.B2I, INTS, 0);
+            acc = acc.add(va.mul(vb));
+        }
+        int sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public String name() {
+        return "simd-" + FLOATS.vectorBitSize();
+    }
+
+    private static VectorSpecies<Byte> byteSpecies(int bitSize) {
+        try {
+            return VectorSpecies.of(byte.class, VectorShape.forBitSize(bitSize));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.multiagent.retrieval;
+
+import java.util.Locale;
+
+// Dot-product primitives used by the vector stores. The SIMD implementation needs
+// --add-modules jdk.incubator.vector at runtime; without it "auto" falls back to the scalar loop.
+public interface SimilarityKernel {
+
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    float dot(float[] a, int aOffset, byte[] b, int bOffset, int length);
+
+    int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+
+    String name();
+
+    static SimilarityKernel create(String mode) {
+        switch (mode.trim().toLowerCase(Locale.ROOT)) {
+            case "scalar":
+                return new ScalarSimilarityKernel();
+            case "simd":
+                SimilarityKernel simd = loadSimd();
+                if (simd == null) {
+                    throw new IllegalStateException("SIMD kernel requested but jdk.incubator.vector is not available (start the JVM with --add-modules jdk.incubator.vector)");
+                }
+                return simd;
+            case "auto":
+                SimilarityKernel kernel = loadSimd();
+                return kernel != null ? kernel : new ScalarSimilarityKernel();
+            default:
+                throw new IllegalArgumentException("Unknown retrieval.similarity-kernel: " + mode);
+        }
+    }
+
+    private static SimilarityKernel loadSimd() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            // Loaded reflectively so the scalar path never links against the incubator module.
+            return (SimilarityKernel) Class.forName("com.example.multiagent.retrieval.SimdSimilarityKernel")
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("SIMD similarity kernel unavailable, using scalar: " + e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.multiagent.retrieval;
+
+import java.util.List;
+
+public interface VectorIndex {
+
+    // Vector ids are the ids of the store passed to build().
+    void build(DenseVectorStore store);
+
+    // Query must be L2-normalised; returns up to k neighbours ordered by descending cosine similarity.
+    List<Neighbor> search(float[] query, int k);
+
+    int size();
+
+    String name();
+
+    class Neighbor {
+        private final int id;
+        private final double score;
+
+        public Neighbor(int id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.multiagent.retrieval;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public final class VectorIndexEvaluator {
+
+    private VectorIndexEvaluator() {
+    }
+
+    // Fraction of the exact top-k that the approximate index also returns, averaged over the queries.
+    public static double recallAtK(VectorIndex approximate, VectorIndex exact, List<float[]> queries, int k) {
+        if (queries.isEmpty() || k <= 0) {
+            return 1.0;
+        }
+
+        double total = 0.0;
+        for (float[] query : queries) {
+            total += recall(approximate.search(query, k), exact.search(query, k));
+        }
+        return total / queries.size();
+    }
+
+    // Leave-one-out variant for queries taken from the indexed vectors themselves: a stored vector is always its
+    // own nearest neighbour (found by any index), so its id is dropped from both result lists before comparing.
+    public static double recallAtKExcludingSelf(VectorIndex approximate, VectorIndex exact, DenseVectorStore store,
+                                                List<Integer> queryIds, int k) {
+        if (queryIds.isEmpty() || k <= 0) {
+            return 1.0;
+        }
+
+        double total = 0.0;
+        for (int id : queryIds) {
+            float[] query = store.vector(id);
+            total += recall(withoutId(approximate.search(query, k + 1), id, k), withoutId(exact.search(query, k + 1), id, k));
+        }
+        return total / queryIds.size();
+    }
+
+    private static double recall(List<VectorIndex.Neighbor> approximate, List<VectorIndex.Neighbor> expected) {
+        if (expected.isEmpty()) {
+            return 1.0;
+        }
+        Set<Integer> found = new HashSet<>();
+        for (VectorIndex.Neighbor neighbor : approximate) {
+            found.add(neighbor.getId());
+        }
+        int hits = 0;
+        for (VectorIndex.Neighbor neighbor : expected) {
+            if (found.contains(neighbor.getId())) {
+                hits++;
+            }
+        }
+        return (double) hits / expected.size();
+    }
+
+    private static List<VectorIndex.Neighbor> withoutId(List<VectorIndex.Neighbor> neighbors, int id, int k) {
+        List<VectorIndex.Neighbor> result = new ArrayList<>(k);
+        for (VectorIndex.Neighbor neighbor : neighbors) {
+            if (neighbor.getId() != id && result.size() < k) {
+                result.add(neighbor);
+            }
+        }
+        return result;
+    }
+}
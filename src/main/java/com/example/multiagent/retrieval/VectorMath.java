@@ -0,0 +1,41 @@
+package com.example.multiagent.retrieval;
+
+final class VectorMath {
+
+    private VectorMath() {
+    }
+
+    static float[] toFloats(double[] vector) {
+        float[] result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = (float) vector[i];
+        }
+        return result;
+    }
+
+    // Returns an L2-normalised copy; a zero vector stays zero.
+    static float[] normalize(float[] vector) {
+        double sum = 0.0;
+        for (float v : vector) {
+            sum += (double) v * v;
+        }
+        float[] result = new float[vector.length];
+        if (sum == 0.0) {
+            return result;
+        }
+        float inv = (float) (1.0 / Math.sqrt(sum));
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = vector[i] * inv;
+        }
+        return result;
+    }
+
+    static boolean isZero(float[] vector) {
+        for (float v : vector) {
+            if (v != 0f) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.multiagent.storage;
+
+import com.example.multiagent.llm.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// History as handed to the LLM prompts: once a conversation has been compacted, its first message is a
+// "system" summary of the folded turns, followed by the turns that have not been folded yet.
+public final class ConversationHistory {
+    public static final String SUMMARY_PREFIX = "Summary of the earlier conversation:\n";
+
+    private ConversationHistory() {
+    }
+
+    public static Message summaryMessage(String summary) {
+        return new Message("system", SUMMARY_PREFIX + summary);
+    }
+
+    public static boolean isSummary(Message message) {
+        return "system".equals(message.getRole()) && message.getContent() != null && message.getContent().startsWith(SUMMARY_PREFIX);
+    }
+
+    // The last maxTurns turns, plus the leading summary if there is one, so fixed-size windows keep the older context.
+    public static List<Message> recent(List<Message> history, int maxTurns) {
+        boolean summarized = !history.isEmpty() && isSummary(history.get(0));
+        int first = summarized ? 1 : 0;
+        List<Message> recent = new ArrayList<>(maxTurns + 1);
+        if (summarized) {
+            recent.add(history.get(0));
+        }
+        recent.addAll(history.subList(Math.max(first, history.size() - maxTurns), history.size()));
+        return recent;
+    }
+}
@@ -0,0 +1,546 @@
+package com.example.multiagent.storage;
+
+import com.example.multiagent.llm.Message;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Write-ahead log for conversation history: append-only segment files of length-prefixed, CRC-checked records
+// plus a snapshot file holding every retained conversation as of a segment boundary.
+//
+// Every record carries a global sequence number. A snapshot stores, per conversation, the last sequence it
+// includes, so records that ended up both in the snapshot and in a segment after it are skipped on replay.
+//
+// A single writer thread drains the queue and writes each group of records with one fsync (group commit);
+// callers only enqueue and can wait on the returned future if they need durability before answering.
+class ConversationLog {
+    static final byte APPEND = 1;
+    static final byte CLEAR = 2;
+
+    private static final int SNAPSHOT_MAGIC = 0x4D414353; // "MACS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final long groupCommitNanos;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Object files = new Object(); // readers of the snapshot and old segments vs. compaction replacing them
+    private final AtomicLong sequence = new AtomicLong();
+    private Thread writer;
+    private volatile boolean running = false;
+
+    // Owned by the writer thread once started.
+    private FileChannel segment;
+    private int segmentId;
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+    private volatile long lastSnapshotMillis = -1;
+
+    ConversationLog(Path dir, long segmentBytes, long groupCommitNanos) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.groupCommitNanos = groupCommitNanos;
+    }
+
+    // Loads the snapshot, then replays the segments written after it. Must run before start().
+    Recovery recover(Consumer<ConversationSnapshot> onSnapshot, Consumer<Record> onRecord) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(dir);
+        Recovery recovery = new Recovery();
+
+        SnapshotFile snapshot = readSnapshot(onSnapshot);
+        recovery.snapshotConversations = snapshot.conversations;
+        recovery.snapshotMessages = snapshot.messages;
+        int firstSegment = snapshot.firstSegment;
+        long[] maxSeq = {snapshot.maxSeq};
+
+        int lastSegment = firstSegment - 1;
+        for (int id : listSegments()) {
+            if (id < firstSegment) {
+                Files.deleteIfExists(segmentPath(id)); // already covered by the snapshot
+                continue;
+            }
+            lastSegment = Math.max(lastSegment, id);
+            recovery.segmentsReplayed++;
+            try {
+                recovery.recordsReplayed += replaySegment(id, record -> {
+                    maxSeq[0] = Math.max(maxSeq[0], record.seq);
+                    onRecord.accept(record);
+                });
+            } catch (IOException e) {
+                // A torn or corrupt tail (crash mid-write); everything before it has been applied.
+                System.err.println("Conversation log " + segmentPath(id) + " ends with an unreadable record, ignoring the rest: "
+                        + (e instanceof EOFException ? "truncated record" : e.getMessage()));
+                recovery.corruptSegments++;
+            }
+        }
+
+        sequence.set(maxSeq[0]);
+        segmentId = lastSegment + 1;
+        recovery.millis = (System.nanoTime() - start) / 1_000_000;
+        return recovery;
+    }
+
+    void start() throws IOException {
+        segment = openSegment(segmentId);
+        running = true;
+        writer = new Thread(this::writeLoop, "conversation-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    long nextSequence() {
+        return sequence.incrementAndGet();
+    }
+
+    // Enqueues a record; the future completes once it has been written and synced.
+    CompletableFuture<Void> append(Record record) {
+        Pending pending = new Pending(record);
+        queue.add(pending);
+        return pending.done;
+    }
+
+    // Closes the current segment and returns the id of the next one: every record enqueued before this call
+    // is in an earlier segment.
+    int rotate() {
+        Pending marker = new Pending(null);
+        queue.add(marker);
+        marker.done.join();
+        return marker.rotatedTo;
+    }
+
+    // The logged state of the given conversations: the snapshot plus the segments before beforeSegment
+    // (Integer.MAX_VALUE for all of them), with the same sequence skipping as recovery. Conversations without
+    // records, or cleared since, are absent. Records still queued are not seen; wait on their futures first.
+    Map<String, ConversationSnapshot> read(Set<String> conversationIds, int beforeSegment) throws IOException {
+        Map<String, List<Message>> messages = new HashMap<>();
+        Map<String, Long> lastSeqs = new HashMap<>();
+        if (conversationIds.isEmpty()) {
+            return new HashMap<>();
+        }
+        synchronized (files) {
+            SnapshotFile snapshot = readSnapshot(conversation -> {
+                if (conversationIds.contains(conversation.conversationId)) {
+                    messages.put(conversation.conversationId, new ArrayList<>(conversation.messages));
+                    lastSeqs.put(conversation.conversationId, conversation.lastSeq);
+                }
+            });
+            for (int id : listSegments()) {
+                if (id < snapshot.firstSegment || id >= beforeSegment) {
+                    continue;
+                }
+                try {
+                    replaySegment(id, record -> {
+                        Long lastSeq = lastSeqs.get(record.conversationId);
+                        if (!conversationIds.contains(record.conversationId) || (lastSeq != null && record.seq <= lastSeq)) {
+                            return;
+                        }
+                        if (record.type == CLEAR) {
+                            messages.remove(record.conversationId);
+                            lastSeqs.remove(record.conversationId);
+                        } else {
+                            messages.computeIfAbsent(record.conversationId, k -> new ArrayList<>()).add(record.message);
+                            lastSeqs.put(record.conversationId, record.seq);
+                        }
+                    });
+                } catch (IOException e) {
+                    // Torn tail: recovery ignores it too, and the segment being written can end mid-record
+                }
+            }
+        }
+        Map<String, ConversationSnapshot> state = new HashMap<>();
+        for (Map.Entry<String, List<Message>> entry : messages.entrySet()) {
+            state.put(entry.getKey(), new ConversationSnapshot(entry.getKey(), lastSeqs.get(entry.getKey()), entry.getValue()));
+        }
+        return state;
+    }
+
+    // Writes the snapshot atomically and then drops the segments it supersedes (compaction).
+    void writeSnapshot(int firstSegment, List<ConversationSnapshot> conversations) throws IOException {
+        Path snapshotPath = dir.resolve(SNAPSHOT_FILE);
+        Path tmp = dir.resolve(SNAPSHOT_FILE + ".tmp");
+        long maxSeq = sequence.get();
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(firstSegment);
+            out.writeLong(maxSeq);
+            out.writeInt(conversations.size());
+            for (ConversationSnapshot conversation : conversations) {
+                writeString(out, conversation.conversationId);
+                out.writeLong(conversation.lastSeq);
+                out.writeInt(conversation.messages.size());
+                for (Message message : conversation.messages) {
+                    writeMessage(out, message);
+                }
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        synchronized (files) {
+            Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            for (int id : listSegments()) {
+                if (id < firstSegment) {
+                    Files.deleteIfExists(segmentPath(id));
+                }
+            }
+        }
+        snapshots.incrementAndGet();
+        lastSnapshotMillis = System.currentTimeMillis();
+    }
+
+    // Drains the queue, syncs and stops the writer.
+    void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            writer.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long syncCount = syncs.get();
+        stats.put("dir", dir.toString());
+        stats.put("segment", segmentId);
+        stats.put("records", records.get());
+        stats.put("syncs", syncCount);
+        stats.put("recordsPerSync", syncCount == 0 ? 0.0 : (double) records.get() / syncCount);
+        stats.put("bytesWritten", bytesWritten.get());
+        stats.put("snapshots", snapshots.get());
+        stats.put("lastSnapshotEpochMs", lastSnapshotMillis);
+        return stats;
+    }
+
+    private void writeLoop() {
+        while (running || !queue.isEmpty()) {
+            List<Pending> batch = new ArrayList<>();
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Group commit: gather whatever else arrives within the window, then sync once.
+                long deadline = System.nanoTime() + groupCommitNanos;
+                while (first.record != null) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    if (next.record == null) {
+                        break; // rotation marker ends the group
+                    }
+                }
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                running = false;
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                System.err.println("Error writing conversation log: " + e.getMessage());
+                for (Pending pending : batch) {
+                    pending.done.completeExceptionally(e);
+                }
+            }
+        }
+        try {
+            segment.force(false);
+            segment.close();
+        } catch (IOException e) {
+            System.err.println("Error closing conversation log segment: " + e.getMessage());
+        }
+    }
+
+    private void writeBatch(List<Pending> batch) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        List<Pending> written = new ArrayList<>();
+        for (Pending pending : batch) {
+            if (pending.record != null) {
+                encodeRecord(out, pending.record);
+                written.add(pending);
+                continue;
+            }
+            flush(buffer, written);
+            segment.close();
+            segmentId++;
+            segment = openSegment(segmentId);
+            pending.rotatedTo = segmentId;
+            pending.done.complete(null);
+        }
+        flush(buffer, written);
+
+        if (segment.size() >= segmentBytes) {
+            segment.close();
+            segmentId++;
+            segment = openSegment(segmentId);
+        }
+    }
+
+    private void flush(ByteArrayOutputStream buffer, List<Pending> written) throws IOException {
+        if (written.isEmpty()) {
+            return;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        while (bytes.hasRemaining()) {
+            segment.write(bytes);
+        }
+        segment.force(false);
+        syncs.incrementAndGet();
+        records.addAndGet(written.size());
+        bytesWritten.addAndGet(buffer.size());
+        for (Pending pending : written) {
+            pending.done.complete(null);
+        }
+        buffer.reset();
+        written.clear();
+    }
+
+    private SnapshotFile readSnapshot(Consumer<ConversationSnapshot> onSnapshot) throws IOException {
+        SnapshotFile snapshot = new SnapshotFile();
+        Path snapshotPath = dir.resolve(SNAPSHOT_FILE);
+        if (!Files.isRegularFile(snapshotPath)) {
+            return snapshot;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Conversation snapshot " + snapshotPath + " has unknown format");
+            }
+            snapshot.firstSegment = in.readInt();
+            snapshot.maxSeq = in.readLong();
+            snapshot.conversations = in.readInt();
+            for (int i = 0; i < snapshot.conversations; i++) {
+                String conversationId = readString(in);
+                long lastSeq = in.readLong();
+                int messageCount = in.readInt();
+                List<Message> messages = new ArrayList<>(messageCount);
+                for (int m = 0; m < messageCount; m++) {
+                    messages.add(readMessage(in));
+                }
+                onSnapshot.accept(new ConversationSnapshot(conversationId, lastSeq, messages));
+                snapshot.messages += messageCount;
+            }
+        }
+        return snapshot;
+    }
+
+    // Returns the number of records read; IOException on a torn or corrupt record, after the ones before it.
+    private long replaySegment(int id, Consumer<Record> onRecord) throws IOException {
+        long count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmentPath(id))))) {
+            while (true) {
+                Record record = readRecord(in);
+                if (record == null) {
+                    return count;
+                }
+                onRecord.accept(record);
+                count++;
+            }
+        }
+    }
+
+    // Frame: payload length, CRC32 of the payload, payload.
+    private static void encodeRecord(DataOutputStream out, Record record) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        payload.writeByte(record.type);
+        payload.writeLong(record.seq);
+        writeString(payload, record.conversationId);
+        if (record.type == APPEND) {
+            writeMessage(payload, record.message);
+        }
+        byte[] bytes = payloadBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        out.writeInt(bytes.length);
+        out.writeInt((int) crc.getValue());
+        out.write(bytes);
+    }
+
+    // Null at a clean end of segment; IOException on a torn or corrupt record.
+    private static Record readRecord(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length <= 0 || length > MAX_RECORD_BYTES) {
+            throw new IOException("invalid record length " + length);
+        }
+        int expectedCrc = in.readInt();
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException("record checksum mismatch");
+        }
+
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte type = payload.readByte();
+        long seq = payload.readLong();
+        String conversationId = readString(payload);
+        Message message = type == APPEND ? readMessage(payload) : null;
+        return new Record(type, seq, conversationId, message);
+    }
+
+    private static void writeMessage(DataOutputStream out, Message message) throws IOException {
+        writeString(out, message.getRole());
+        LocalDateTime timestamp = message.getTimestamp();
+        out.writeLong(timestamp == null ? Long.MIN_VALUE : timestamp.toInstant(ZoneOffset.UTC).toEpochMilli());
+        writeString(out, message.getContent());
+    }
+
+    private static Message readMessage(DataInputStream in) throws IOException {
+        Message message = new Message(readString(in), null);
+        long timestamp = in.readLong();
+        message.setTimestamp(timestamp == Long.MIN_VALUE ? null
+                : LocalDateTime.ofEpochSecond(Math.floorDiv(timestamp, 1000), (int) Math.floorMod(timestamp, 1000) * 1_000_000, ZoneOffset.UTC));
+        message.setContent(readString(in));
+        return message;
+    }
+
+    // Length-prefixed UTF-8 (writeUTF caps at 64 KB); -1 encodes null.
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_RECORD_BYTES) {
+            throw new IOException("invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private FileChannel openSegment(int id) throws IOException {
+        FileChannel channel = FileChannel.open(segmentPath(id), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        // Make the new file's directory entry durable too.
+        channel.force(true);
+        return channel;
+    }
+
+    private Path segmentPath(int id) {
+        return dir.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private List<Integer> listSegments() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    ids.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    static class Record {
+        final byte type;
+        final long seq;
+        final String conversationId;
+        final Message message; // null for CLEAR
+
+        Record(byte type, long seq, String conversationId, Message message) {
+            this.type = type;
+            this.seq = seq;
+            this.conversationId = conversationId;
+            this.message = message;
+        }
+    }
+
+    static class ConversationSnapshot {
+        final String conversationId;
+        final long lastSeq;
+        final List<Message> messages;
+
+        ConversationSnapshot(String conversationId, long lastSeq, List<Message> messages) {
+            this.conversationId = conversationId;
+            this.lastSeq = lastSeq;
+            this.messages = messages;
+        }
+    }
+
+    private static class SnapshotFile {
+        int firstSegment;
+        long maxSeq;
+        int conversations;
+        long messages;
+    }
+
+    static class Recovery {
+        long millis;
+        int snapshotConversations;
+        long snapshotMessages;
+        int segmentsReplayed;
+        long recordsReplayed;
+        int corruptSegments;
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("millis", millis);
+            map.put("snapshotConversations", snapshotConversations);
+            map.put("snapshotMessages", snapshotMessages);
+            map.put("segmentsReplayed", segmentsReplayed);
+            map.put("recordsReplayed", recordsReplayed);
+            map.put("corruptSegments", corruptSegments);
+            return map;
+        }
+    }
+
+    private static class Pending {
+        final Record record; // null marks a rotation request
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        volatile int rotatedTo;
+
+        Pending(Record record) {
+            this.record = record;
+        }
+    }
+}
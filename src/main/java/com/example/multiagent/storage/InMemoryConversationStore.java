@@ -1,35 +1,250 @@
 package com.example.multiagent.storage;
 
 import com.example.multiagent.llm.Message;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+// Conversation history per conversation id. Each conversation keeps at most maxMessages turns in a ring
+// buffer (0 = unbounded); conversations idle longer than idleTtl are evicted by a background sweep, and when
+// the estimated size exceeds maxBytes the least recently active conversations are evicted first. Both run on
+// the maintenance thread, as do log snapshots, so request threads never wait for either.
+// Writers lock only their own conversation and publish an immutable snapshot; readers never lock.
+// With conversation.log.enabled every change is also written to a ConversationLog and replayed on startup.
+// Eviction then only drops the in-memory copy: the conversation stays in the log (snapshots carry it forward)
+// and is reloaded from it on next use. Only clear() logs a CLEAR and deletes it for good.
+// With conversation.summary.enabled, once summary.trigger-messages turns have not been summarised, all but the
+// newest summary.keep-recent of them are folded into a running summary on a background thread (one compaction
+// per conversation at a time); getHistoryForLlm then returns the summary plus the turns after it. Summaries are
+// a cache: they are not logged, and are rebuilt after a restart when the conversation next passes the trigger.
 @Component
 public class InMemoryConversationStore {
-    private final Map<String, List<Message>> conversations = new ConcurrentHashMap<>();
+    private static final CompletableFuture<Void> LOGGED = CompletableFuture.completedFuture(null);
+
+    private final Map<String, Conversation> conversations = new ConcurrentHashMap<>();
+    // Evicted conversations that are still in the log, with the future of their last record
+    private final Map<String, CompletableFuture<Void>> evicted = new ConcurrentHashMap<>();
+    // Evictions and reloads take the read lock; a snapshot takes the write lock while it decides which
+    // conversations it captures from memory and which it carries forward from the log
+    private final ReentrantReadWriteLock evictionLock = new ReentrantReadWriteLock();
+    private final Object snapshotLock = new Object(); // the periodic snapshot vs. the one at shutdown
+    private final AtomicBoolean budgetEvictionScheduled = new AtomicBoolean();
+    private final int maxMessages;
+    private final long idleTtlNanos;
+    private final long maxBytes;
+    private final ScheduledExecutorService sweeper;
+    private final ConversationLog log;
+    private final boolean waitForSync;
+    private final Map<String, Object> recoveryStats;
+    private final int summaryTrigger;
+    private final int summaryKeepRecent;
+    private final ExecutorService summaryExecutor;
+    private volatile Summarizer summarizer;
+
+    private final AtomicLong retainedMessages = new AtomicLong();
+    private final AtomicLong estimatedBytes = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong idleEvictions = new AtomicLong();
+    private final AtomicLong budgetEvictions = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong compactionFailures = new AtomicLong();
+    private final AtomicLong compactionNanos = new AtomicLong();
+    private final AtomicLong foldedMessages = new AtomicLong();
+
+    @Autowired
+    public InMemoryConversationStore(
+            @Value("${conversation.store.max-messages:50}") int maxMessages,
+            @Value("${conversation.store.idle-ttl:PT24H}") Duration idleTtl,
+            @Value("${conversation.store.max-bytes:268435456}") long maxBytes,
+            @Value("${conversation.log.enabled:false}") boolean logEnabled,
+            @Value("${conversation.log.dir:./data/conversations}") String logDir,
+            @Value("${conversation.log.segment-bytes:67108864}") long segmentBytes,
+            @Value("${conversation.log.group-commit-window:PT0.01S}") Duration groupCommitWindow,
+            @Value("${conversation.log.wait-for-sync:false}") boolean waitForSync,
+            @Value("${conversation.log.snapshot-interval:PT10M}") Duration snapshotInterval,
+            @Value("${conversation.summary.enabled:false}") boolean summaryEnabled,
+            @Value("${conversation.summary.trigger-messages:16}") int summaryTrigger,
+            @Value("${conversation.summary.keep-recent:6}") int summaryKeepRecent,
+            @Value("${conversation.summary.concurrency:2}") int summaryConcurrency) {
+        this.maxMessages = maxMessages;
+        this.idleTtlNanos = idleTtl.toNanos();
+        this.maxBytes = maxBytes;
+        this.waitForSync = waitForSync;
+
+        if (logEnabled) {
+            this.log = new ConversationLog(Paths.get(logDir), segmentBytes, groupCommitWindow.toNanos());
+            try {
+                ConversationLog.Recovery recovery = log.recover(this::restore, this::replay);
+                for (Conversation conversation : conversations.values()) {
+                    conversation.snapshot = Collections.unmodifiableList(conversation.messages.snapshot());
+                    conversation.loaded = true;
+                }
+                log.start();
+                this.recoveryStats = recovery.toMap();
+                System.out.println("Conversation log: recovered " + conversations.size() + " conversations in " + recovery.millis
+                        + " ms (" + recovery.snapshotMessages + " messages from snapshot, " + recovery.recordsReplayed
+                        + " records replayed from " + recovery.segmentsReplayed + " segments)");
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to recover conversation log in " + logDir, e);
+            }
+        } else {
+            this.log = null;
+            this.recoveryStats = null;
+        }
+
+        if (idleTtlNanos > 0 || maxBytes > 0 || log != null) {
+            this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "conversation-maintenance");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.sweeper = null;
+        }
+        if (idleTtlNanos > 0) {
+            long periodMillis = Math.max(1000, Math.min(idleTtl.toMillis() / 4, 60_000));
+            this.sweeper.scheduleWithFixedDelay(this::evictIdle, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+        if (log != null && snapshotInterval.toMillis() > 0) {
+            long periodMillis = snapshotInterval.toMillis();
+            this.sweeper.scheduleWithFixedDelay(this::snapshot, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+        if (maxBytes > 0 && estimatedBytes.get() > maxBytes) {
+            evictOverBudget();
+        }
+
+        this.summaryKeepRecent = Math.max(0, summaryKeepRecent);
+        this.summaryTrigger = Math.max(this.summaryKeepRecent + 1, summaryTrigger);
+        if (summaryEnabled) {
+            AtomicLong threads = new AtomicLong();
+            this.summaryExecutor = Executors.newFixedThreadPool(Math.max(1, summaryConcurrency), runnable -> {
+                Thread thread = new Thread(runnable, "conversation-summarizer-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.summaryExecutor = null;
+        }
+    }
+
+    // Given the current summary (null before the first compaction) and the turns to fold into it, oldest first,
+    // returns the new summary. Called on a background thread; an exception leaves the old summary in place.
+    public interface Summarizer {
+        String summarize(String previousSummary, List<Message> turns);
+    }
+
+    public void setSummarizer(Summarizer summarizer) {
+        this.summarizer = summarizer;
+    }
 
     public List<Message> getHistory(String conversationId) {
-        return conversations.getOrDefault(conversationId, new ArrayList<>());
+        Conversation conversation = conversation(conversationId, false);
+        if (conversation == null) {
+            return new ArrayList<>();
+        }
+        conversation.touch();
+        return new ArrayList<>(conversation.snapshot);
     }
 
     public void append(String conversationId, Message message) {
-        conversations.computeIfAbsent(conversationId, k -> new ArrayList<>()).add(message);
+        append(conversationId, List.of(message));
     }
 
     public void append(String conversationId, List<Message> messages) {
-        List<Message> history = conversations.computeIfAbsent(conversationId, k -> new ArrayList<>());
-        history.addAll(messages);
+        List<CompletableFuture<Void>> logged = new ArrayList<>(messages.size());
+        while (true) {
+            Conversation conversation = conversation(conversationId, true);
+            synchronized (conversation) {
+                if (conversation.evicted) {
+                    continue; // lost a race with eviction; retry on a fresh conversation
+                }
+                for (Message message : messages) {
+                    add(conversation, message);
+                    if (log != null) {
+                        conversation.lastSeq = log.nextSequence();
+                        conversation.lastLogged = log.append(new ConversationLog.Record(ConversationLog.APPEND, conversation.lastSeq, conversationId, message));
+                        logged.add(conversation.lastLogged);
+                    }
+                }
+                conversation.snapshot = Collections.unmodifiableList(conversation.messages.snapshot());
+                conversation.touch();
+                maybeCompact(conversationId, conversation);
+            }
+            break;
+        }
+        if (waitForSync) {
+            CompletableFuture.allOf(logged.toArray(new CompletableFuture[0])).join();
+        }
+        if (maxBytes > 0 && estimatedBytes.get() > maxBytes && budgetEvictionScheduled.compareAndSet(false, true)) {
+            try {
+                sweeper.execute(() -> {
+                    budgetEvictionScheduled.set(false);
+                    evictOverBudget();
+                });
+            } catch (RejectedExecutionException e) {
+                // shutting down
+            }
+        }
     }
 
+    // Deletes the conversation, including its logged history. An evicted conversation is reloaded first, so the
+    // CLEAR is ordered after all of its records.
     public void clear(String conversationId) {
-        conversations.remove(conversationId);
+        while (true) {
+            Conversation conversation = conversation(conversationId, false);
+            if (conversation == null) {
+                return;
+            }
+            evictionLock.readLock().lock();
+            try {
+                synchronized (conversation) {
+                    if (conversation.evicted) {
+                        continue; // evicted again meanwhile
+                    }
+                    drop(conversationId, conversation);
+                    if (log != null) {
+                        log.append(new ConversationLog.Record(ConversationLog.CLEAR, log.nextSequence(), conversationId, null));
+                    }
+                    return;
+                }
+            } finally {
+                evictionLock.readLock().unlock();
+            }
+        }
     }
 
     public List<Message> getHistoryForLlm(String conversationId) {
-        List<Message> history = getHistory(conversationId);
-        List<Message> result = new ArrayList<>();
+        Conversation conversation = conversation(conversationId, false);
+        if (conversation == null) {
+            return new ArrayList<>();
+        }
+        conversation.touch();
+        // Summary first: a snapshot read after it is at least as new as the one it was built from
+        Summary summary = conversation.summary;
+        List<Message> history = unsummarized(conversation.snapshot, summary);
+        List<Message> result = new ArrayList<>(history.size() + 1);
+        if (summary != null) {
+            result.add(summary.message);
+        }
         for (Message msg : history) {
             if ("user".equals(msg.getRole()) || "assistant".equals(msg.getRole()) || "system".equals(msg.getRole())) {
                 result.add(msg);
@@ -37,4 +252,344 @@ public class InMemoryConversationStore {
         }
         return result;
     }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxMessagesPerConversation", maxMessages);
+        stats.put("liveConversations", conversations.size());
+        stats.put("retainedMessages", retainedMessages.get());
+        stats.put("estimatedBytes", estimatedBytes.get());
+        stats.put("maxBytes", maxBytes);
+        stats.put("droppedMessages", droppedMessages.get());
+        stats.put("idleEvictions", idleEvictions.get());
+        stats.put("budgetEvictions", budgetEvictions.get());
+        if (log != null) {
+            stats.put("evictedInLog", evicted.size());
+            stats.put("reloads", reloads.get());
+        }
+        if (summaryExecutor != null) {
+            Map<String, Object> summaryStats = new LinkedHashMap<>();
+            long count = compactions.get();
+            summaryStats.put("compactions", count);
+            summaryStats.put("failures", compactionFailures.get());
+            summaryStats.put("avgMillis", count == 0 ? 0 : compactionNanos.get() / count / 1_000_000);
+            summaryStats.put("foldedMessages", foldedMessages.get());
+            stats.put("summaries", summaryStats);
+        }
+        if (log != null) {
+            Map<String, Object> logStats = log.stats();
+            logStats.put("recovery", recoveryStats);
+            stats.put("log", logStats);
+        }
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+        if (summaryExecutor != null) {
+            summaryExecutor.shutdownNow();
+        }
+        if (log != null) {
+            snapshot(); // so the next start replays (almost) nothing
+            log.close();
+        }
+    }
+
+    // Rotate first, then capture: every record in the segments before the rotation point is already reflected
+    // in the captured state, and records after it that are also in the capture are skipped by sequence on replay.
+    // Evicted conversations are carried forward from the log as of the rotation point, since the segments
+    // holding them are about to be dropped.
+    private void snapshot() {
+        synchronized (snapshotLock) {
+            try {
+                int firstSegment = log.rotate();
+                List<ConversationLog.ConversationSnapshot> captured = new ArrayList<>(conversations.size());
+                Set<String> inLog;
+                evictionLock.writeLock().lock();
+                try {
+                    for (Map.Entry<String, Conversation> entry : conversations.entrySet()) {
+                        Conversation conversation = entry.getValue();
+                        synchronized (conversation) {
+                            if (!conversation.evicted && conversation.loaded) {
+                                captured.add(new ConversationLog.ConversationSnapshot(entry.getKey(), conversation.lastSeq, conversation.snapshot));
+                            }
+                        }
+                    }
+                    inLog = new HashSet<>(evicted.keySet());
+                } finally {
+                    evictionLock.writeLock().unlock();
+                }
+                for (ConversationLog.ConversationSnapshot logged : log.read(inLog, firstSegment).values()) {
+                    List<Message> messages = logged.messages;
+                    if (maxMessages > 0 && messages.size() > maxMessages) {
+                        messages = messages.subList(messages.size() - maxMessages, messages.size());
+                    }
+                    captured.add(new ConversationLog.ConversationSnapshot(logged.conversationId, logged.lastSeq, messages));
+                }
+                log.writeSnapshot(firstSegment, captured);
+            } catch (Exception e) {
+                System.err.println("Error writing conversation snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+    private void restore(ConversationLog.ConversationSnapshot snapshot) {
+        Conversation conversation = new Conversation(maxMessages);
+        for (Message message : snapshot.messages) {
+            add(conversation, message);
+        }
+        conversation.lastSeq = snapshot.lastSeq;
+        conversations.put(snapshot.conversationId, conversation);
+    }
+
+    private void replay(ConversationLog.Record record) {
+        Conversation conversation = conversations.get(record.conversationId);
+        if (conversation != null && record.seq <= conversation.lastSeq) {
+            return; // already part of the snapshot
+        }
+        if (record.type == ConversationLog.CLEAR) {
+            if (conversation != null) {
+                conversations.remove(record.conversationId);
+                retainedMessages.addAndGet(-conversation.messages.size());
+                estimatedBytes.addAndGet(-conversation.bytes);
+            }
+            return;
+        }
+        if (conversation == null) {
+            conversation = new Conversation(maxMessages);
+            conversations.put(record.conversationId, conversation);
+        }
+        add(conversation, record.message);
+        conversation.lastSeq = record.seq;
+    }
+
+    // The in-memory conversation, reloaded from the log if it was evicted; null if there is none and create is false.
+    private Conversation conversation(String conversationId, boolean create) {
+        Conversation conversation = conversations.get(conversationId);
+        if (conversation == null) {
+            if (!create && !evicted.containsKey(conversationId)) {
+                return null;
+            }
+            conversation = conversations.computeIfAbsent(conversationId, k -> new Conversation(maxMessages));
+        }
+        if (!conversation.loaded) {
+            evictionLock.readLock().lock();
+            try {
+                synchronized (conversation) {
+                    if (!conversation.loaded && !conversation.evicted) {
+                        reload(conversationId, conversation);
+                    }
+                }
+            } finally {
+                evictionLock.readLock().unlock();
+            }
+        }
+        return conversation;
+    }
+
+    // Caller holds the conversation's lock and the eviction read lock.
+    private void reload(String conversationId, Conversation conversation) {
+        CompletableFuture<Void> lastLogged = evicted.get(conversationId);
+        if (lastLogged != null) {
+            try {
+                lastLogged.join(); // its records must be in a segment before they can be read back
+            } catch (CompletionException e) {
+                // a record that failed to write is lost either way
+            }
+            ConversationLog.ConversationSnapshot logged;
+            try {
+                logged = log.read(Set.of(conversationId), Integer.MAX_VALUE).get(conversationId);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to reload conversation " + conversationId + " from the log", e);
+            }
+            if (logged != null) {
+                for (Message message : logged.messages) {
+                    add(conversation, message);
+                }
+                conversation.lastSeq = logged.lastSeq;
+            }
+            conversation.snapshot = Collections.unmodifiableList(conversation.messages.snapshot());
+            evicted.remove(conversationId);
+            reloads.incrementAndGet();
+        }
+        conversation.touch();
+        conversation.loaded = true;
+    }
+
+    // Caller holds the conversation's lock (or is the single recovery thread).
+    private void add(Conversation conversation, Message message) {
+        long bytes = estimateBytes(message);
+        conversation.bytes += bytes;
+        estimatedBytes.addAndGet(bytes);
+        Message dropped = conversation.messages.add(message);
+        if (dropped != null) {
+            long droppedBytes = estimateBytes(dropped);
+            conversation.bytes -= droppedBytes;
+            estimatedBytes.addAndGet(-droppedBytes);
+            droppedMessages.incrementAndGet();
+        } else {
+            retainedMessages.incrementAndGet();
+        }
+    }
+
+    // Caller holds the conversation's lock. Starts a background compaction when enough turns are unsummarised.
+    private void maybeCompact(String conversationId, Conversation conversation) {
+        Summarizer current = summarizer;
+        if (summaryExecutor == null || current == null || conversation.compacting) {
+            return;
+        }
+        List<Message> pending = new ArrayList<>();
+        for (Message msg : unsummarized(conversation.snapshot, conversation.summary)) {
+            if ("user".equals(msg.getRole()) || "assistant".equals(msg.getRole())) {
+                pending.add(msg);
+            }
+        }
+        if (pending.size() < summaryTrigger) {
+            return;
+        }
+        List<Message> fold = new ArrayList<>(pending.subList(0, pending.size() - summaryKeepRecent));
+        Summary previous = conversation.summary;
+        conversation.compacting = true;
+        try {
+            summaryExecutor.execute(() -> compact(conversationId, conversation, current, previous, fold));
+        } catch (RejectedExecutionException e) {
+            conversation.compacting = false; // shutting down
+        }
+    }
+
+    private void compact(String conversationId, Conversation conversation, Summarizer summarizer, Summary previous, List<Message> fold) {
+        long start = System.nanoTime();
+        Summary summary = null;
+        try {
+            String text = summarizer.summarize(previous == null ? null : previous.text, fold);
+            if (text == null || text.isBlank()) {
+                throw new IllegalStateException("empty summary");
+            }
+            summary = new Summary(text, fold.get(fold.size() - 1));
+            compactions.incrementAndGet();
+            compactionNanos.addAndGet(System.nanoTime() - start);
+            foldedMessages.addAndGet(fold.size());
+        } catch (RuntimeException e) {
+            // Retried on the conversation's next append
+            compactionFailures.incrementAndGet();
+            System.err.println("Error summarising conversation " + conversationId + ": " + e.getMessage());
+        } finally {
+            synchronized (conversation) {
+                if (summary != null) {
+                    conversation.summary = summary;
+                }
+                conversation.compacting = false;
+            }
+        }
+    }
+
+    // The messages after the summary's last folded turn. If that turn is no longer retained the ring dropped it,
+    // and every retained message is newer.
+    private static List<Message> unsummarized(List<Message> history, Summary summary) {
+        if (summary != null) {
+            for (int i = history.size() - 1; i >= 0; i--) {
+                if (history.get(i) == summary.lastFolded) {
+                    return history.subList(i + 1, history.size());
+                }
+            }
+        }
+        return history;
+    }
+
+    private void evictIdle() {
+        long cutoff = System.nanoTime() - idleTtlNanos;
+        for (Map.Entry<String, Conversation> entry : conversations.entrySet()) {
+            if (entry.getValue().lastActivityNanos - cutoff < 0 && evict(entry.getKey(), entry.getValue())) {
+                idleEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    // Least recently active first, until the estimate is back under the budget. Runs on the maintenance thread
+    // (or in the constructor, before it starts).
+    private void evictOverBudget() {
+        if (estimatedBytes.get() <= maxBytes) {
+            return;
+        }
+        List<Map.Entry<String, Conversation>> byActivity = new ArrayList<>(conversations.entrySet());
+        byActivity.sort(Comparator.comparingLong(entry -> entry.getValue().lastActivityNanos));
+        for (Map.Entry<String, Conversation> entry : byActivity) {
+            if (estimatedBytes.get() <= maxBytes) {
+                break;
+            }
+            if (evict(entry.getKey(), entry.getValue())) {
+                budgetEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    // Drops the in-memory copy only; with the log enabled the conversation is reloaded from it on next use.
+    private boolean evict(String conversationId, Conversation conversation) {
+        evictionLock.readLock().lock();
+        try {
+            synchronized (conversation) {
+                if (conversation.evicted || !conversation.loaded || conversations.get(conversationId) != conversation) {
+                    return false;
+                }
+                if (log != null) {
+                    // Registered before removal, so a conversation recreated for the same id reloads it
+                    evicted.put(conversationId, conversation.lastLogged);
+                }
+                drop(conversationId, conversation);
+                return true;
+            }
+        } finally {
+            evictionLock.readLock().unlock();
+        }
+    }
+
+    // Caller holds the conversation's lock.
+    private void drop(String conversationId, Conversation conversation) {
+        conversations.remove(conversationId, conversation);
+        conversation.evicted = true;
+        retainedMessages.addAndGet(-conversation.messages.size());
+        estimatedBytes.addAndGet(-conversation.bytes);
+    }
+
+    // Rough heap estimate: object headers and fields plus UTF-16 content.
+    private static long estimateBytes(Message message) {
+        long content = message.getContent() == null ? 0 : message.getContent().length();
+        return 96 + 2 * content;
+    }
+
+    private static class Conversation {
+        final MessageRing messages;
+        long bytes = 0;
+        long lastSeq = 0; // sequence of the last logged change
+        CompletableFuture<Void> lastLogged = LOGGED;
+        volatile List<Message> snapshot = List.of();
+        volatile long lastActivityNanos = System.nanoTime();
+        volatile Summary summary = null;
+        boolean compacting = false;
+        boolean evicted = false;
+        volatile boolean loaded = false; // false until checked against (and reloaded from) the log
+
+        Conversation(int maxMessages) {
+            this.messages = new MessageRing(maxMessages);
+        }
+
+        void touch() {
+            lastActivityNanos = System.nanoTime();
+        }
+    }
+
+    private static class Summary {
+        final String text;
+        final Message message;
+        final Message lastFolded; // identity of the newest turn the summary covers
+
+        Summary(String text, Message lastFolded) {
+            this.text = text;
+            this.message = ConversationHistory.summaryMessage(text);
+            this.lastFolded = lastFolded;
+        }
+    }
 }
@@ -0,0 +1,61 @@
+package com.example.multiagent.storage;
+
+import com.example.multiagent.llm.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Message buffer that keeps at most `capacity` of the newest messages, overwriting the oldest in place.
+// capacity <= 0 means unbounded (the array grows like an ArrayList). Not thread-safe.
+class MessageRing {
+    private final int capacity;
+    private Message[] slots;
+    private int head = 0; // index of the oldest message
+    private int size = 0;
+
+    MessageRing(int capacity) {
+        this.capacity = capacity;
+        this.slots = new Message[capacity > 0 ? Math.min(capacity, 16) : 16];
+    }
+
+    // Returns the message that was overwritten, or null.
+    Message add(Message message) {
+        if (size == slots.length && (capacity <= 0 || slots.length < capacity)) {
+            grow();
+        }
+        if (size < slots.length) {
+            slots[(head + size) % slots.length] = message;
+            size++;
+            return null;
+        }
+        Message dropped = slots[head];
+        slots[head] = message;
+        head = (head + 1) % slots.length;
+        return dropped;
+    }
+
+    List<Message> snapshot() {
+        List<Message> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(slots[(head + i) % slots.length]);
+        }
+        return result;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        int newLength = slots.length * 2;
+        if (capacity > 0) {
+            newLength = Math.min(newLength, capacity);
+        }
+        Message[] grown = new Message[newLength];
+        for (int i = 0; i < size; i++) {
+            grown[i] = slots[(head + i) % slots.length];
+        }
+        slots = grown;
+        head = 0;
+    }
+}
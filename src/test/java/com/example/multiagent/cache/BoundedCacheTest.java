@@ -0,0 +1,66 @@
+package com.example.multiagent.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BoundedCacheTest {
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondMaxEntries() {
+        BoundedCache<String, String> cache = new BoundedCache<>(2, 0, Duration.ZERO, (key, value) -> 1);
+        cache.put("a", "first");
+        cache.put("b", "second");
+        assertEquals("first", cache.get("a")); // "b" is now the eldest
+        cache.put("c", "third");
+
+        assertNull(cache.get("b"));
+        assertEquals("first", cache.get("a"));
+        assertEquals("third", cache.get("c"));
+        assertEquals(1L, cache.stats().get("evictions"));
+    }
+
+    @Test
+    void staysWithinTheWeightBudgetAndSkipsOversizedValues() {
+        BoundedCache<String, String> cache = new BoundedCache<>(100, 10, Duration.ZERO, (key, value) -> value.length());
+        cache.put("a", "1234");
+        cache.put("b", "1234");
+        cache.put("c", "1234");
+        assertNull(cache.get("a"));
+        assertEquals(8L, cache.stats().get("weight"));
+
+        cache.put("huge", "12345678901");
+        assertNull(cache.get("huge"));
+        assertEquals("1234", cache.get("b")); // an oversized value does not flush the cache
+
+        cache.put("b", "12"); // replacing an entry releases its old weight
+        assertEquals(6L, cache.stats().get("weight"));
+    }
+
+    @Test
+    void expiredEntriesAreMisses() throws InterruptedException {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 0, Duration.ofMillis(20), (key, value) -> 1);
+        cache.put("a", "first");
+        assertEquals("first", cache.get("a"));
+
+        Thread.sleep(50);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(1L, cache.stats().get("expirations"));
+        assertEquals(0.5, cache.stats().get("hitRatio"));
+    }
+
+    @Test
+    void zeroMaxEntriesDisablesTheCache() {
+        BoundedCache<String, String> cache = new BoundedCache<>(0, 0, Duration.ZERO, (key, value) -> 1);
+        cache.put("a", "first");
+
+        assertFalse(cache.isEnabled());
+        assertNull(cache.get("a"));
+        assertEquals(0L, cache.stats().get("misses"));
+    }
+}
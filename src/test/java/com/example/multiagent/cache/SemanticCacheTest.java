@@ -0,0 +1,49 @@
+package com.example.multiagent.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SemanticCacheTest {
+
+    @Test
+    void hitsOnlyAboveMinSimilarityAndWithinTheSameContext() {
+        SemanticCache<String> cache = new SemanticCache<>(10, 0.95, Duration.ZERO);
+        cache.put(new float[]{1f, 0f}, "ctx", Set.of("doc"), "answer");
+
+        assertEquals("answer", cache.get(new float[]{0.99f, 0.141f}, "ctx")); // cosine ~0.99
+        assertNull(cache.get(new float[]{0.8f, 0.6f}, "ctx"));                 // cosine 0.8
+        assertNull(cache.get(new float[]{1f, 0f}, "other"));
+    }
+
+    @Test
+    void invalidateTagDropsOnlyEntriesCarryingIt() {
+        SemanticCache<String> cache = new SemanticCache<>(10, 0.95, Duration.ZERO);
+        cache.put(new float[]{1f, 0f}, "a", Set.of("doc1", "doc2"), "first");
+        cache.put(new float[]{0f, 1f}, "b", Set.of("doc2"), "second");
+        cache.put(new float[]{1f, 0f}, "c", Set.of("doc3"), "third");
+
+        assertEquals(2, cache.invalidateTag("doc2"));
+        assertNull(cache.get(new float[]{1f, 0f}, "a"));
+        assertNull(cache.get(new float[]{0f, 1f}, "b"));
+        assertEquals("third", cache.get(new float[]{1f, 0f}, "c"));
+        assertEquals(2L, cache.stats().get("invalidations"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondMaxEntries() {
+        SemanticCache<String> cache = new SemanticCache<>(2, 0.95, Duration.ZERO);
+        cache.put(new float[]{1f, 0f}, "a", Set.of(), "first");
+        cache.put(new float[]{1f, 0f}, "b", Set.of(), "second");
+        cache.get(new float[]{1f, 0f}, "a"); // "b" is now the eldest
+        cache.put(new float[]{1f, 0f}, "c", Set.of(), "third");
+
+        assertEquals("first", cache.get(new float[]{1f, 0f}, "a"));
+        assertNull(cache.get(new float[]{1f, 0f}, "b"));
+        assertEquals(1L, cache.stats().get("evictions"));
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.multiagent.llm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EmbeddingBatcherTest {
+    private final LlmClient llmClient = mock(LlmClient.class);
+    private final List<EmbeddingBatcher> batchers = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        batchers.forEach(EmbeddingBatcher::shutdown);
+    }
+
+    @Test
+    void identicalTextsInOneWindowShareAnApiInput() throws Exception {
+        when(llmClient.embedTextsAsync(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            List<double[]> vectors = new ArrayList<>();
+            for (String text : texts) {
+                vectors.add(new double[]{text.length()});
+            }
+            return CompletableFuture.completedFuture(vectors);
+        });
+        EmbeddingBatcher batcher = batcher(10_000, 3); // the third request closes the window
+
+        CompletableFuture<double[]> first = batcher.embedAsync("reset password");
+        CompletableFuture<double[]> second = batcher.embedAsync("reset password");
+        CompletableFuture<double[]> third = batcher.embedAsync("refund");
+
+        assertArrayEquals(new double[]{14}, first.get(5, TimeUnit.SECONDS));
+        assertArrayEquals(new double[]{14}, second.get(5, TimeUnit.SECONDS));
+        assertArrayEquals(new double[]{6}, third.get(5, TimeUnit.SECONDS));
+        verify(llmClient).embedTextsAsync(List.of("reset password", "refund"));
+        assertEquals(1L, batcher.getStats().get("apiCalls"));
+        assertEquals(2L, batcher.getStats().get("apiInputs"));
+        assertEquals(3L, batcher.getStats().get("maxBatchSize"));
+    }
+
+    @Test
+    void apiFailureFailsEveryCallerInTheBatch() {
+        when(llmClient.embedTextsAsync(anyList())).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("503")));
+        EmbeddingBatcher batcher = batcher(10_000, 2);
+
+        CompletableFuture<double[]> first = batcher.embedAsync("a");
+        CompletableFuture<double[]> second = batcher.embedAsync("b");
+
+        assertInstanceOf(IllegalStateException.class, cause(first));
+        assertInstanceOf(IllegalStateException.class, cause(second));
+    }
+
+    @Test
+    void shutdownFailsQueuedCallersAndLaterRequests() {
+        EmbeddingBatcher batcher = batcher(10_000, 64);
+        CompletableFuture<double[]> waiting = batcher.embedAsync("still in the window");
+
+        batcher.shutdown();
+
+        assertThrows(CancellationException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+        assertThrows(CancellationException.class, () -> batcher.embedAsync("after shutdown").get(5, TimeUnit.SECONDS));
+    }
+
+    private EmbeddingBatcher batcher(long windowMillis, int maxBatchSize) {
+        EmbeddingBatcher batcher = new EmbeddingBatcher(llmClient, true, windowMillis, maxBatchSize);
+        batchers.add(batcher);
+        return batcher;
+    }
+
+    private static Throwable cause(CompletableFuture<double[]> future) {
+        return assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS)).getCause();
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.multiagent.llm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenizerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void bytePairMergesFollowRankOrder() throws Exception {
+        Path ranks = dir.resolve("ranks.tiktoken");
+        Files.write(ranks, List.of(rank("ab", 0), rank("cd", 1), rank("abcd", 2)));
+        Tokenizer tokenizer = new Tokenizer(ranks.toString());
+
+        assertEquals("bpe:ranks.tiktoken", tokenizer.name());
+        assertEquals(1, tokenizer.count("abcd"));  // ab + cd, then abcd
+        assertEquals(3, tokenizer.count("abce"));  // ab, c, e
+        assertEquals(3, tokenizer.count("abcd abcd")); // " abcd" is one piece; the space is not in the ranks
+    }
+
+    @Test
+    void estimateCountsEveryPieceAndAddsMessageOverhead() {
+        Tokenizer tokenizer = new Tokenizer("");
+
+        assertEquals("estimate", tokenizer.name());
+        assertEquals(0, tokenizer.count(""));
+        assertEquals(3, tokenizer.count("How are you"));
+        assertEquals(Tokenizer.TOKENS_PER_MESSAGE + 3, tokenizer.count(new Message("user", "How are you")));
+    }
+
+    @Test
+    void truncateCutsAtAPieceBoundaryWithinTheBudget() {
+        Tokenizer tokenizer = new Tokenizer("");
+        String text = "Webhook signatures are verified with the signing secret from the dashboard.";
+
+        String truncated = tokenizer.truncate(text, 5);
+        assertTrue(text.startsWith(truncated));
+        assertTrue(tokenizer.count(truncated) <= 5);
+        assertEquals(5, tokenizer.count(truncated));
+        assertEquals(text, tokenizer.truncate(text, 1000));
+        assertEquals("", tokenizer.truncate(text, 0));
+    }
+
+    private static String rank(String token, int rank) {
+        return Base64.getEncoder().encodeToString(token.getBytes(StandardCharsets.UTF_8)) + " " + rank;
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.multiagent.orchestrator;
+
+import com.example.multiagent.llm.Message;
+import com.example.multiagent.retrieval.Chunk;
+import org.junit.jupiter.api.Test;
+
+import java.nio.CharBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class ConversationOrchestratorTest {
+
+    private static final List<Chunk> SNIPPETS = List.of(
+            new Chunk("api", "Auth", "Use a bearer token."),
+            new Chunk("api", "Limits", "100 requests per minute."));
+
+    @Test
+    void answerCacheKeyDependsOnThePromptHistory() {
+        List<Message> alice = List.of(new Message("user", "I'm Alice, account 42"), new Message("assistant", "Hi Alice"));
+        List<Message> bob = List.of(new Message("user", "I'm Bob, account 7"), new Message("assistant", "Hi Bob"));
+
+        assertNotEquals(ConversationOrchestrator.contextKey(SNIPPETS, false, alice),
+                ConversationOrchestrator.contextKey(SNIPPETS, false, bob));
+        assertNotEquals(ConversationOrchestrator.contextKey(SNIPPETS, false, alice),
+                ConversationOrchestrator.contextKey(SNIPPETS, false, List.of()));
+        // First turns carry no conversation details and are shared
+        assertEquals(ConversationOrchestrator.contextKey(SNIPPETS, false, List.of()),
+                ConversationOrchestrator.contextKey(List.of(SNIPPETS.get(1), SNIPPETS.get(0)), false, List.of()));
+    }
+
+    @Test
+    void answerCacheKeySeparatesFormatsAndEditedText() {
+        assertNotEquals(ConversationOrchestrator.contextKey(SNIPPETS, false, List.of()),
+                ConversationOrchestrator.contextKey(SNIPPETS, true, List.of()));
+        List<Chunk> edited = List.of(SNIPPETS.get(0), new Chunk("api", "Limits", "200 requests per minute."));
+        assertNotEquals(ConversationOrchestrator.contextKey(SNIPPETS, false, List.of()),
+                ConversationOrchestrator.contextKey(edited, false, List.of()));
+    }
+
+    @Test
+    void rangeBackedChunksKeyLikeTheirText() {
+        CharBuffer corpus = CharBuffer.wrap("xxUse a bearer token.yy");
+        List<Chunk> mapped = List.of(new Chunk("api", "Auth", corpus, 2, 21), SNIPPETS.get(1));
+        assertEquals(ConversationOrchestrator.contextKey(SNIPPETS, false, List.of()),
+                ConversationOrchestrator.contextKey(mapped, false, List.of()));
+    }
+}
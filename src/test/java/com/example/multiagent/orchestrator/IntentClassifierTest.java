@@ -0,0 +1,40 @@
+package com.example.multiagent.orchestrator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IntentClassifierTest {
+    private final IntentClassifier classifier = new IntentClassifier();
+
+    @Test
+    void matchingRulesOfOneRouteCombineIntoHighConfidence() {
+        IntentClassifier.Classification tech = classifier.classify("My webhook returns 401");
+        assertEquals("TECH", tech.getRoute());
+        assertEquals(1 - 0.2 * 0.4, tech.getConfidence(), 1e-9);
+        assertEquals(2, tech.getMatchedRules().size());
+
+        IntentClassifier.Classification billing = classifier.classify("I want a REFUND for my invoice");
+        assertEquals("BILLING", billing.getRoute());
+        assertEquals(1 - 0.15 * 0.25, billing.getConfidence(), 1e-9);
+    }
+
+    @Test
+    void evidenceForAnotherRouteLowersConfidence() {
+        IntentClassifier.Classification mixed = classifier.classify("I was charged twice after the webhook error");
+
+        assertEquals("TECH", mixed.getRoute());
+        assertEquals((1 - 0.2 * 0.6) * (1 - 0.75), mixed.getConfidence(), 1e-9);
+        assertTrue(mixed.getConfidence() < classifier.classify("webhook error").getConfidence());
+    }
+
+    @Test
+    void noMatchingRuleLeavesTheRouteToTheLlm() {
+        assertNull(classifier.classify("Hello, is anyone there?").getRoute());
+        assertEquals(0.0, classifier.classify("Hello, is anyone there?").getConfidence());
+        assertNull(classifier.classify("  ").getRoute());
+        assertNull(classifier.classify(null).getRoute());
+    }
+}
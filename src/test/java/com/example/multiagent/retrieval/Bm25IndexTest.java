@@ -0,0 +1,65 @@
+package com.example.multiagent.retrieval;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Bm25IndexTest {
+
+    private final List<Chunk> chunks = List.of(
+            new Chunk("billing", "Invoices", "Invoices are emailed at the start of every billing period."),
+            new Chunk("api", "Webhooks", "Register an endpoint to receive events."),
+            new Chunk("api", "Authentication", "Requests are signed; a webhook endpoint should verify the signature."),
+            new Chunk("api", "Rate limits", "Clients are limited to 100 requests per minute."));
+
+    @Test
+    void ranksMatchingChunksBestFirst() {
+        Bm25Index index = new Bm25Index(chunks);
+
+        List<Bm25Index.ScoredDoc> results = index.search("webhook signature", 10);
+        assertEquals(2, results.get(0).getId()); // both terms
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).getScore() > results.get(1).getScore());
+    }
+
+    @Test
+    void titleMatchesAreBoosted() {
+        Bm25Index index = new Bm25Index(chunks);
+
+        // "webhook" is in the title of chunk 1 and only in the body of chunk 2
+        assertEquals(1, index.search("webhook", 10).get(0).getId());
+    }
+
+    @Test
+    void pluralsFoldToTheSingular() {
+        assertEquals(List.of("webhook", "invoice", "class"), Bm25Index.tokenize("Webhooks invoices class"));
+        assertEquals(0, new Bm25Index(chunks).search("invoice", 1).get(0).getId());
+    }
+
+    @Test
+    void unknownTermsAndEmptyIndexesReturnNothing() {
+        assertTrue(new Bm25Index(chunks).search("kubernetes", 10).isEmpty());
+        assertTrue(new Bm25Index(List.of()).search("webhook", 10).isEmpty());
+    }
+
+    @Test
+    void searchOrFillTopsUpWithChunksInOrder() {
+        Bm25Index index = new Bm25Index(chunks);
+
+        // No term matches: the first k chunks, as the keyword scan returned
+        List<Bm25Index.ScoredDoc> none = index.searchOrFill("kubernetes", 2);
+        assertEquals(List.of(0, 1), ids(none));
+        assertEquals(0.0, none.get(0).getScore());
+
+        // Matches come first, the rest is filled without repeating them
+        assertEquals(List.of(3, 0, 1), ids(index.searchOrFill("minute", 3)));
+        assertEquals(4, index.searchOrFill("minute", 10).size());
+    }
+
+    private static List<Integer> ids(List<Bm25Index.ScoredDoc> docs) {
+        return docs.stream().map(Bm25Index.ScoredDoc::getId).toList();
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.multiagent.retrieval;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DenseVectorStoreTest {
+
+    @Test
+    void float32StoresNormalisedVectorsExactly() {
+        DenseVectorStore store = DenseVectorStore.create("float32", List.of(new float[]{3, 4}, new float[]{0, 2}), new ScalarSimilarityKernel());
+
+        assertTrue(store.exact());
+        assertArrayEquals(new float[]{0.6f, 0.8f}, store.vector(0), 1e-6f);
+        assertEquals(0.8f, store.dot(0, 1), 1e-6f);
+        assertEquals(0.6f, store.dot(new float[]{1, 0}, 0), 1e-6f);
+        assertEquals(2L * 2 * Float.BYTES, store.sizeInBytes());
+    }
+
+    @Test
+    void int8ApproximatesFloat32AtAQuarterOfTheSize() {
+        Random random = new Random(7);
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            float[] vector = new float[256];
+            for (int d = 0; d < vector.length; d++) {
+                vector[d] = (float) random.nextGaussian();
+            }
+            vectors.add(vector);
+        }
+        DenseVectorStore exact = DenseVectorStore.create("float32", vectors, new ScalarSimilarityKernel());
+        DenseVectorStore quantised = DenseVectorStore.create("int8", vectors, new ScalarSimilarityKernel());
+
+        assertFalse(quantised.exact());
+        assertTrue(quantised.sizeInBytes() * 3 < exact.sizeInBytes());
+        float[] query = exact.vector(0);
+        for (int id = 0; id < vectors.size(); id++) {
+            assertEquals(exact.dot(query, id), quantised.dot(query, id), 0.01f);
+            assertEquals(exact.dot(0, id), quantised.dot(0, id), 0.01f);
+        }
+    }
+
+    @Test
+    void rejectsMixedDimensionsAndUnknownTypes() {
+        List<float[]> mixed = List.of(new float[]{1, 0}, new float[]{1, 0, 0});
+        assertThrows(IllegalArgumentException.class, () -> DenseVectorStore.create("int8", mixed, new ScalarSimilarityKernel()));
+        assertThrows(IllegalArgumentException.class, () -> DenseVectorStore.create("float16", List.of(), new ScalarSimilarityKernel()));
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.multiagent.retrieval;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmbeddingIndexStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void updatesAreAppendedAndLaterRecordsWin() throws IOException {
+        Path file = dir.resolve("index.bin");
+        EmbeddingIndexStore store = new EmbeddingIndexStore(file.toString());
+        store.update("model", Map.of("a", entry(1), "b", entry(2)), Set.of("a", "b"));
+        long size = Files.size(file);
+        store.update("model", Map.of("c", entry(3)), Set.of("a", "b", "c"));
+
+        assertTrue(Files.size(file) > size);
+        Map<String, EmbeddingIndexStore.Entry> loaded = new EmbeddingIndexStore(file.toString()).load("model");
+        assertEquals(Set.of("a", "b", "c"), loaded.keySet());
+        assertArrayEquals(new float[]{3, 0}, loaded.get("c").getVector());
+    }
+
+    @Test
+    void compactsWhenSupersededRecordsPileUp() throws IOException {
+        Path file = dir.resolve("index.bin");
+        EmbeddingIndexStore store = new EmbeddingIndexStore(file.toString());
+        store.update("model", Map.of("a", entry(1), "b", entry(2)), Set.of("a", "b"));
+        store.update("model", Map.of("c", entry(3)), Set.of("a", "c")); // "b" edited into "c": 3 records, 2 live
+        store.update("model", Map.of("d", entry(4)), Set.of("a", "d")); // 4 records, still appended
+        assertEquals(Set.of("a", "b", "c", "d"), new EmbeddingIndexStore(file.toString()).load("model").keySet());
+
+        store.update("model", Map.of("e", entry(5)), Set.of("a", "e")); // would be 5 records for 2 live: rewritten
+        assertEquals(Set.of("a", "e"), new EmbeddingIndexStore(file.toString()).load("model").keySet());
+    }
+
+    @Test
+    void tornTailIsIgnoredAndRewrittenOnTheNextUpdate() throws IOException {
+        Path file = dir.resolve("index.bin");
+        EmbeddingIndexStore store = new EmbeddingIndexStore(file.toString());
+        store.update("model", Map.of("a", entry(1)), Set.of("a", "b"));
+        store.update("model", Map.of("b", entry(2)), Set.of("a", "b"));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 2);
+        }
+
+        EmbeddingIndexStore restarted = new EmbeddingIndexStore(file.toString());
+        assertEquals(Set.of("a"), restarted.load("model").keySet());
+        restarted.update("model", Map.of("b", entry(2)), Set.of("a", "b"));
+        assertEquals(Set.of("a", "b"), new EmbeddingIndexStore(file.toString()).load("model").keySet());
+    }
+
+    @Test
+    void readsVersionOneFilesAndIgnoresOtherModels() throws IOException {
+        Path file = dir.resolve("index.bin");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(0x4D41454D);
+            out.writeInt(1);
+            out.writeUTF("model");
+            out.writeInt(1);
+            out.writeUTF("a");
+            out.writeUTF("doc");
+            out.writeUTF("Title");
+            out.writeInt(2);
+            out.writeFloat(1);
+            out.writeFloat(0);
+        }
+
+        EmbeddingIndexStore store = new EmbeddingIndexStore(file.toString());
+        assertEquals(Set.of("a"), store.load("model").keySet());
+        assertTrue(store.load("other-model").isEmpty());
+
+        // Version 1 has an entry count in its header, so the first update rewrites it in the current format
+        store.update("model", Map.of("b", entry(2)), Set.of("a", "b"));
+        assertEquals(Set.of("a", "b"), new EmbeddingIndexStore(file.toString()).load("model").keySet());
+    }
+
+    @Test
+    void corruptRecordStopsReadingAndIsRewrittenOnTheNextUpdate() throws IOException {
+        Path file = dir.resolve("index.bin");
+        EmbeddingIndexStore store = new EmbeddingIndexStore(file.toString());
+        store.update("model", Map.of("a", entry(1)), Set.of("a", "b"));
+        long firstRecordEnd = Files.size(file);
+        store.update("model", Map.of("b", entry(2)), Set.of("a", "b"));
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 0x55; // last byte of b's vector: only the checksum notices
+        Files.write(file, bytes);
+
+        EmbeddingIndexStore restarted = new EmbeddingIndexStore(file.toString());
+        assertEquals(Set.of("a"), restarted.load("model").keySet());
+        restarted.update("model", Map.of("b", entry(2)), Set.of("a", "b"));
+        assertTrue(Files.size(file) > firstRecordEnd);
+        Map<String, EmbeddingIndexStore.Entry> loaded = new EmbeddingIndexStore(file.toString()).load("model");
+        assertArrayEquals(new float[]{2, 0}, loaded.get("b").getVector());
+    }
+
+    @Test
+    void implausibleDimensionsReadAsCorruptInsteadOfAllocating() throws IOException {
+        for (int dimensions : new int[]{-1, Integer.MAX_VALUE}) {
+            Path file = dir.resolve("index" + dimensions + ".bin");
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+                out.writeInt(0x4D41454D);
+                out.writeInt(2);
+                out.writeUTF("model");
+                writeVersionTwoEntry(out, "a", 1f, 0f);
+                out.writeUTF("b");
+                out.writeUTF("doc");
+                out.writeUTF("Title");
+                out.writeInt(dimensions);
+                out.writeFloat(1);
+            }
+
+            assertEquals(Set.of("a"), new EmbeddingIndexStore(file.toString()).load("model").keySet());
+        }
+    }
+
+    @Test
+    void vectorsOfAnotherDimensionAreNotMixedIn() throws IOException {
+        Path file = dir.resolve("index.bin");
+        EmbeddingIndexStore store = new EmbeddingIndexStore(file.toString());
+        store.update("model", Map.of("a", entry(1)), Set.of("a", "b"));
+        // The model now returns 3 dimensions under the same name: the file is rewritten without the old vectors
+        store.update("model", Map.of("b", new EmbeddingIndexStore.Entry("doc", "Title", new float[]{1, 2, 3})), Set.of("a", "b"));
+
+        Map<String, EmbeddingIndexStore.Entry> loaded = new EmbeddingIndexStore(file.toString()).load("model");
+        assertEquals(Set.of("b"), loaded.keySet());
+        assertEquals(3, loaded.get("b").getVector().length);
+    }
+
+    @Test
+    void contentKeyOfRangeBackedChunkMatchesTheHashOfItsUtf8Bytes() throws Exception {
+        // Longer than the encoder's 8 KB slice, with a surrogate pair across the boundary and a lone surrogate
+        String text = "x".repeat(8191) + "😀 Grüße " + "y".repeat(9000) + "\uD800 end";
+        CharBuffer corpus = CharBuffer.wrap(("prefix" + text + "suffix").toCharArray());
+        Chunk mapped = new Chunk("doc", "Title", corpus, 6, 6 + text.length());
+        Chunk owned = new Chunk("doc", "Title", text);
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update("model".getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update("Title".getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+        StringBuilder expected = new StringBuilder();
+        for (byte b : digest.digest()) {
+            expected.append(String.format("%02x", b));
+        }
+
+        assertEquals(expected.toString(), EmbeddingIndexStore.contentKey("model", owned));
+        assertEquals(expected.toString(), EmbeddingIndexStore.contentKey("model", mapped));
+    }
+
+    private static void writeVersionTwoEntry(DataOutputStream out, String key, float... vector) throws IOException {
+        out.writeUTF(key);
+        out.writeUTF("doc");
+        out.writeUTF("Title");
+        out.writeInt(vector.length);
+        for (float v : vector) {
+            out.writeFloat(v);
+        }
+    }
+
+    private static EmbeddingIndexStore.Entry entry(float value) {
+        return new EmbeddingIndexStore.Entry("doc", "Title", new float[]{value, 0});
+    }
+}
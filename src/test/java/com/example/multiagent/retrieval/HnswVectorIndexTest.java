@@ -0,0 +1,77 @@
+package com.example.multiagent.retrieval;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HnswVectorIndexTest {
+
+    @Test
+    void recallAgainstExactSearchIsHigh() {
+        Random random = new Random(42);
+        DenseVectorStore store = DenseVectorStore.create("float32", randomVectors(random, 2000, 32), new ScalarSimilarityKernel());
+        HnswVectorIndex hnsw = new HnswVectorIndex(16, 200, 100);
+        hnsw.build(store);
+        ExactVectorIndex exact = new ExactVectorIndex();
+        exact.build(store);
+
+        double recall = VectorIndexEvaluator.recallAtK(hnsw, exact, randomVectors(random, 100, 32), 10);
+        assertTrue(recall >= 0.9, "recall@10 " + recall);
+
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 0; id < store.size(); id += 20) {
+            ids.add(id);
+        }
+        double leaveOneOut = VectorIndexEvaluator.recallAtKExcludingSelf(hnsw, exact, store, ids, 10);
+        assertTrue(leaveOneOut >= 0.9, "leave-one-out recall@10 " + leaveOneOut);
+    }
+
+    @Test
+    void leaveOneOutRecallIgnoresTheQueryItself() {
+        DenseVectorStore store = DenseVectorStore.create("float32", List.of(
+                new float[]{1, 0}, new float[]{0.9f, 0.1f}, new float[]{0, 1}), new ScalarSimilarityKernel());
+        ExactVectorIndex exact = new ExactVectorIndex();
+        exact.build(store);
+        // Finds only the query vector itself: perfect with self-matching, zero once the query is excluded
+        VectorIndex selfOnly = new VectorIndex() {
+            @Override
+            public void build(DenseVectorStore vectors) {
+            }
+
+            @Override
+            public List<Neighbor> search(float[] query, int k) {
+                return List.of(new Neighbor(0, 1.0));
+            }
+
+            @Override
+            public int size() {
+                return store.size();
+            }
+
+            @Override
+            public String name() {
+                return "self-only";
+            }
+        };
+
+        assertEquals(1.0, VectorIndexEvaluator.recallAtK(selfOnly, exact, List.of(store.vector(0)), 1));
+        assertEquals(0.0, VectorIndexEvaluator.recallAtKExcludingSelf(selfOnly, exact, store, List.of(0), 1));
+    }
+
+    private static List<float[]> randomVectors(Random random, int count, int dimension) {
+        List<float[]> vectors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] vector = new float[dimension];
+            for (int d = 0; d < dimension; d++) {
+                vector[d] = (float) random.nextGaussian();
+            }
+            vectors.add(vector);
+        }
+        return vectors;
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.multiagent.retrieval;
+
+import com.example.multiagent.llm.EmbeddingBatcher;
+import com.example.multiagent.llm.LlmClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RetrieverTest {
+    private static final Pattern WORD = Pattern.compile("\\w+");
+
+    @TempDir
+    Path dir;
+
+    private final Map<String, String> docs = new LinkedHashMap<>();
+    private final AtomicInteger embeddedInputs = new AtomicInteger();
+    private final AtomicBoolean embeddingsDown = new AtomicBoolean();
+    private final ForkJoinPool ingestPool = new ForkJoinPool(2);
+    private final ExecutorService searchExecutor = Executors.newCachedThreadPool();
+    private final List<Retriever> retrievers = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        retrievers.forEach(Retriever::shutdown);
+        ingestPool.shutdownNow();
+        searchExecutor.shutdownNow();
+    }
+
+    @Test
+    void reindexPublishesTheNewTextAtOnceAndEmbedsItInTheBackground() {
+        docs.put("api", "## Webhooks\nWebhooks deliver events to your endpoint.\n\n## Limits\nClients get 100 requests per minute.");
+        docs.put("auth", "## Tokens\nAccess tokens expire after one hour.");
+        Retriever retriever = retriever("float32");
+        awaitVectors(retriever);
+        assertEquals(3, embeddedInputs.get());
+
+        // The embeddings API is down while the document changes
+        embeddingsDown.set(true);
+        docs.put("api", "## Webhooks\nWebhooks deliver events to your endpoint.\n\n## Limits\nBursts of 500 requests per minute are allowed.");
+        retriever.reindexDocuments(List.of("api"));
+
+        assertEquals(1, retriever.getIndexStatus().get("chunksWithoutVectors"));
+        List<String> texts = texts(retriever.search("bursts requests per minute", 4));
+        assertTrue(texts.contains("Bursts of 500 requests per minute are allowed."), texts.toString());
+        assertFalse(texts.contains("Clients get 100 requests per minute."), texts.toString()); // tombstoned vector
+
+        embeddingsDown.set(false);
+        awaitVectors(retriever);
+        assertEquals(4, embeddedInputs.get()); // only the edited section
+        assertEquals(0, retriever.getStats().get("vectorTombstones"));
+        ScoredChunk top = retriever.search("bursts requests per minute", 1).getHits().get(0);
+        assertEquals("Bursts of 500 requests per minute are allowed.", top.getChunk().getText());
+        assertNotNull(top.getVectorScore());
+    }
+
+    @Test
+    void deletedDocumentIsDroppedFromTheLiveGraphAndCompactedLater() {
+        docs.put("api", "## Webhooks\nWebhooks deliver events to your endpoint.");
+        docs.put("auth", "## Tokens\nAccess tokens expire after one hour.");
+        Retriever retriever = retriever("int8");
+        awaitVectors(retriever);
+
+        docs.remove("auth");
+        retriever.reindexDocuments(List.of("auth"));
+        assertFalse(texts(retriever.search("access tokens expire", 4)).contains("Access tokens expire after one hour."));
+
+        awaitVectors(retriever);
+        assertEquals(0, retriever.getStats().get("vectorTombstones"));
+        assertEquals(2, embeddedInputs.get()); // the rebuild takes the remaining vector from disk
+    }
+
+    @Test
+    void int8RebuildsQuantiseTheOriginalVectorsNotTheirApproximation() {
+        docs.put("api", "## Webhooks\nWebhooks deliver events to your endpoint.");
+        docs.put("auth", "## Tokens\nAccess tokens expire after one hour, refresh tokens after thirty days.");
+        Retriever retriever = retriever("int8");
+        awaitVectors(retriever);
+        double score = vectorScore(retriever, "refresh access tokens");
+
+        // Each edit of the other document rebuilds the store; the unchanged chunk must score exactly as before
+        for (int edit = 1; edit <= 3; edit++) {
+            docs.put("api", "## Webhooks\nWebhooks deliver events to your endpoint, attempt " + edit + ".");
+            retriever.reindexDocuments(List.of("api"));
+            awaitVectors(retriever);
+            assertEquals(score, vectorScore(retriever, "refresh access tokens"));
+        }
+    }
+
+    @Test
+    void rrfFusionRewardsChunksBothRetrieversRank() {
+        putThreeDocuments();
+        Retriever retriever = retriever("float32", "rrf");
+        awaitVectors(retriever);
+
+        // BM25 folds "webhook" onto "Webhooks"; the test embedding does not, so that chunk is a lexical-only hit
+        RetrievalResult result = retriever.search("access tokens expire webhook", 3);
+        assertEquals("hybrid", result.getMode());
+        assertEquals(2, result.getHits().size());
+        ScoredChunk both = result.getHits().get(0);
+        assertEquals("Access tokens expire after one hour.", both.getChunk().getText());
+        assertEquals(2.0 / 61, both.getScore(), 1e-12); // rank 1 in both lists with rrf-k 60
+        ScoredChunk lexicalOnly = result.getHits().get(1);
+        assertEquals("Webhooks deliver events to your endpoint.", lexicalOnly.getChunk().getText());
+        assertEquals(1.0 / 62, lexicalOnly.getScore(), 1e-12);
+        assertNull(lexicalOnly.getVectorScore());
+    }
+
+    @Test
+    void weightedFusionBlendsCosineWithNormalisedBm25() {
+        putThreeDocuments();
+        Retriever retriever = retriever("float32", "weighted");
+        awaitVectors(retriever);
+
+        List<ScoredChunk> hits = retriever.search("webhooks deliver events with tokens", 3).getHits();
+        assertEquals("Webhooks deliver events to your endpoint.", hits.get(0).getChunk().getText());
+        double maxLexical = hits.get(0).getLexicalScore();
+        for (ScoredChunk hit : hits) {
+            double vector = hit.getVectorScore() == null ? 0 : hit.getVectorScore();
+            double lexical = hit.getLexicalScore() == null ? 0 : hit.getLexicalScore() / maxLexical;
+            assertEquals(0.5 * vector + 0.5 * lexical, hit.getScore(), 1e-9);
+        }
+    }
+
+    @Test
+    void restartReusesTheVectorsOnDisk() {
+        docs.put("api", "## Webhooks\nWebhooks deliver events to your endpoint.");
+        docs.put("auth", "## Tokens\nAccess tokens expire after one hour.");
+        awaitVectors(retriever("float32"));
+        docs.put("faq", "## Support\nSupport answers within a day.");
+
+        awaitVectors(retriever("float32"));
+        assertEquals(3, embeddedInputs.get());
+    }
+
+    private void putThreeDocuments() {
+        docs.put("api", "## Webhooks\nWebhooks deliver events to your endpoint.");
+        docs.put("auth", "## Tokens\nAccess tokens expire after one hour.");
+        docs.put("faq", "## Support\nSupport answers within a day.");
+    }
+
+    private Retriever retriever(String vectorStoreType) {
+        return retriever(vectorStoreType, "rrf");
+    }
+
+    private Retriever retriever(String vectorStoreType, String fusion) {
+        LlmClient llmClient = mock(LlmClient.class);
+        when(llmClient.getEmbeddingModel()).thenReturn("test-embedding");
+        when(llmClient.embedTextsAsync(anyList())).thenAnswer(invocation -> {
+            if (embeddingsDown.get()) {
+                return CompletableFuture.failedFuture(new RuntimeException("503"));
+            }
+            List<String> texts = invocation.getArgument(0);
+            embeddedInputs.addAndGet(texts.size());
+            List<double[]> vectors = new ArrayList<>();
+            for (String text : texts) {
+                vectors.add(embed(text));
+            }
+            return CompletableFuture.completedFuture(vectors);
+        });
+        EmbeddingBatcher batcher = mock(EmbeddingBatcher.class);
+        when(batcher.embed(any())).thenAnswer(invocation -> embed(invocation.getArgument(0)));
+
+        DocLoader docLoader = mock(DocLoader.class);
+        when(docLoader.getIngestPool()).thenReturn(ingestPool);
+        when(docLoader.loadCorpus()).thenAnswer(invocation -> new LinkedHashMap<String, CharSequence>(docs));
+        when(docLoader.loadDocuments(anyCollection())).thenAnswer(invocation -> {
+            Map<String, String> loaded = new LinkedHashMap<>();
+            for (Object docId : invocation.getArgument(0, java.util.Collection.class)) {
+                if (docs.containsKey(docId)) {
+                    loaded.put((String) docId, docs.get(docId));
+                }
+            }
+            return loaded;
+        });
+
+        Retriever retriever = new Retriever(docLoader, new Chunker(), llmClient, batcher,
+                new EmbeddingIndexStore(dir.resolve("embedding-index.bin").toString()), searchExecutor,
+                "scalar", vectorStoreType, "exact", 16, 200, 64, 0, 4, "hybrid", fusion, 60, 0.5, 20,
+                2, 8192, 128, 1, Duration.ZERO, Duration.ofMillis(20), Duration.ofMillis(20),
+                100, 1 << 20, Duration.ofMinutes(1));
+        retrievers.add(retriever);
+        return retriever;
+    }
+
+    // Bag of words hashed into 64 dimensions, so texts sharing words are similar.
+    private static double[] embed(String text) {
+        double[] vector = new double[64];
+        vector[0] = 0.1;
+        Matcher matcher = WORD.matcher(text.toLowerCase(Locale.ROOT));
+        while (matcher.find()) {
+            vector[1 + Math.floorMod(matcher.group().hashCode(), 63)] += 1.0;
+        }
+        return vector;
+    }
+
+    private static double vectorScore(Retriever retriever, String query) {
+        ScoredChunk top = retriever.search(query, 1).getHits().get(0);
+        assertEquals("auth", top.getChunk().getDocId());
+        return top.getVectorScore();
+    }
+
+    private static List<String> texts(RetrievalResult result) {
+        List<String> texts = new ArrayList<>();
+        for (ScoredChunk hit : result.getHits()) {
+            texts.add(hit.getChunk().getText());
+        }
+        return texts;
+    }
+
+    private static void awaitVectors(Retriever retriever) {
+        await(() -> "READY".equals(retriever.getIndexStatus().get("state"))
+                && Integer.valueOf(0).equals(retriever.getIndexStatus().get("chunksWithoutVectors"))
+                && Integer.valueOf(0).equals(retriever.getStats().get("vectorTombstones")));
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not reached within 10s");
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.multiagent.storage;
+
+import com.example.multiagent.llm.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversationLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void tornTailKeepsTheRecordsBeforeIt() throws IOException {
+        write("a", "one", "two", "three");
+        Path segment = dir.resolve("segment-00000000.log");
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3); // crash in the middle of the last record
+        }
+
+        List<ConversationLog.Record> replayed = new ArrayList<>();
+        ConversationLog log = new ConversationLog(dir, 1 << 20, 0);
+        ConversationLog.Recovery recovery = log.recover(snapshot -> { }, replayed::add);
+
+        assertEquals(List.of("one", "two"), contents(replayed));
+        assertEquals(1, recovery.corruptSegments);
+        assertEquals(3, log.nextSequence()); // the torn record's sequence is reused, nothing after it was acknowledged
+    }
+
+    @Test
+    void checksumMismatchStopsReplayAtTheCorruptRecord() throws IOException {
+        write("a", "one", "two", "three");
+        Path segment = dir.resolve("segment-00000000.log");
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[bytes.length - 1] ^= 0x55; // last byte of the last record's content
+        Files.write(segment, bytes);
+
+        List<ConversationLog.Record> replayed = new ArrayList<>();
+        ConversationLog.Recovery recovery = new ConversationLog(dir, 1 << 20, 0).recover(snapshot -> { }, replayed::add);
+
+        assertEquals(List.of("one", "two"), contents(replayed));
+        assertEquals(1, recovery.corruptSegments);
+    }
+
+    @Test
+    void recoveryStartsNewRecordsInAFreshSegment() throws IOException {
+        write("a", "one");
+        Path segment = dir.resolve("segment-00000000.log");
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        ConversationLog log = new ConversationLog(dir, 1 << 20, 0);
+        log.recover(snapshot -> { }, record -> { });
+        log.start();
+        log.append(new ConversationLog.Record(ConversationLog.APPEND, log.nextSequence(), "a", new Message("user", "two"))).join();
+        log.close();
+
+        // The torn segment is left as it was; the new record is readable after it
+        List<ConversationLog.Record> replayed = new ArrayList<>();
+        new ConversationLog(dir, 1 << 20, 0).recover(snapshot -> { }, replayed::add);
+        assertEquals(List.of("two"), contents(replayed));
+    }
+
+    @Test
+    void snapshotReplacesTheSegmentsBeforeIt() throws IOException {
+        ConversationLog log = new ConversationLog(dir, 1 << 20, 0);
+        log.recover(snapshot -> { }, record -> { });
+        log.start();
+        append(log, "a", "one");
+        append(log, "a", "two");
+        int firstSegment = log.rotate();
+        append(log, "a", "three");
+        // Captured after the rotation, so it already holds "three" (seq 3), which is also in the new segment
+        log.writeSnapshot(firstSegment, List.of(new ConversationLog.ConversationSnapshot("a", 3,
+                List.of(new Message("user", "one"), new Message("user", "two"), new Message("user", "three")))));
+        append(log, "a", "four");
+        log.close();
+
+        assertFalse(Files.exists(dir.resolve("segment-00000000.log")));
+
+        List<ConversationLog.ConversationSnapshot> snapshots = new ArrayList<>();
+        List<ConversationLog.Record> replayed = new ArrayList<>();
+        ConversationLog recovered = new ConversationLog(dir, 1 << 20, 0);
+        ConversationLog.Recovery recovery = recovered.recover(snapshots::add, replayed::add);
+
+        assertEquals(1, snapshots.size());
+        assertEquals(3, snapshots.get(0).lastSeq);
+        assertEquals(List.of("three", "four"), contents(replayed));
+        assertEquals(0, recovery.corruptSegments);
+        assertEquals(5, recovered.nextSequence());
+
+        // read() applies the sequence skipping itself
+        Map<String, ConversationLog.ConversationSnapshot> state = recovered.read(Set.of("a"), Integer.MAX_VALUE);
+        assertEquals(List.of("one", "two", "three", "four"), messageContents(state.get("a").messages));
+        assertEquals(4, state.get("a").lastSeq);
+    }
+
+    @Test
+    void readForgetsClearedConversations() throws IOException {
+        ConversationLog log = new ConversationLog(dir, 1 << 20, 0);
+        log.recover(snapshot -> { }, record -> { });
+        log.start();
+        append(log, "a", "one");
+        append(log, "b", "kept");
+        log.append(new ConversationLog.Record(ConversationLog.CLEAR, log.nextSequence(), "a", null)).join();
+        log.close();
+
+        Map<String, ConversationLog.ConversationSnapshot> state = new ConversationLog(dir, 1 << 20, 0).read(Set.of("a", "b"), Integer.MAX_VALUE);
+        assertFalse(state.containsKey("a"));
+        assertTrue(state.containsKey("b"));
+    }
+
+    private void write(String conversationId, String... contents) throws IOException {
+        ConversationLog log = new ConversationLog(dir, 1 << 20, 0);
+        log.recover(snapshot -> { }, record -> { });
+        log.start();
+        for (String content : contents) {
+            append(log, conversationId, content);
+        }
+        log.close();
+    }
+
+    private static void append(ConversationLog log, String conversationId, String content) {
+        log.append(new ConversationLog.Record(ConversationLog.APPEND, log.nextSequence(), conversationId, new Message("user", content))).join();
+    }
+
+    private static List<String> contents(List<ConversationLog.Record> records) {
+        List<String> contents = new ArrayList<>();
+        for (ConversationLog.Record record : records) {
+            contents.add(record.message.getContent());
+        }
+        return contents;
+    }
+
+    private static List<String> messageContents(List<Message> messages) {
+        List<String> contents = new ArrayList<>();
+        for (Message message : messages) {
+            contents.add(message.getContent());
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.multiagent.storage;
+
+import com.example.multiagent.llm.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryConversationStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void evictedConversationIsReloadedFromTheLog() {
+        // Each 50-character message is estimated at 196 bytes, so the second conversation pushes the first out
+        InMemoryConversationStore store = store(300);
+        try {
+            store.append("a", new Message("user", "a".repeat(50)));
+            store.append("b", new Message("user", "b".repeat(50)));
+            await(() -> ((Number) store.getStats().get("budgetEvictions")).longValue() == 1);
+            assertEquals(1, store.getStats().get("evictedInLog"));
+
+            List<Message> history = store.getHistory("a");
+            assertEquals(1, history.size());
+            assertEquals("a".repeat(50), history.get(0).getContent());
+            assertEquals(1L, store.getStats().get("reloads"));
+        } finally {
+            store.shutdown();
+        }
+    }
+
+    @Test
+    void evictedConversationSurvivesSnapshotAndRestart() {
+        InMemoryConversationStore store = store(300);
+        store.append("a", new Message("user", "a".repeat(50)));
+        store.append("b", new Message("user", "b".repeat(50)));
+        await(() -> ((Number) store.getStats().get("budgetEvictions")).longValue() == 1);
+        store.shutdown(); // snapshots and compacts the segments that held "a"
+
+        InMemoryConversationStore restarted = store(0);
+        try {
+            assertEquals("a".repeat(50), restarted.getHistory("a").get(0).getContent());
+            assertEquals("b".repeat(50), restarted.getHistory("b").get(0).getContent());
+        } finally {
+            restarted.shutdown();
+        }
+    }
+
+    @Test
+    void clearDeletesTheConversationFromTheLog() {
+        InMemoryConversationStore store = store(0);
+        store.append("a", new Message("user", "hello"));
+        store.append("b", new Message("user", "world"));
+        store.clear("a");
+        store.shutdown();
+
+        InMemoryConversationStore restarted = store(0);
+        try {
+            assertTrue(restarted.getHistory("a").isEmpty());
+            assertEquals(1, restarted.getHistory("b").size());
+        } finally {
+            restarted.shutdown();
+        }
+    }
+
+    @Test
+    void replayAfterSnapshotSkipsRecordsTheSnapshotHolds() throws Exception {
+        ConversationLog log = new ConversationLog(dir, 1 << 20, 0);
+        log.recover(snapshot -> { }, record -> { });
+        log.start();
+        log.append(new ConversationLog.Record(ConversationLog.APPEND, log.nextSequence(), "a", new Message("user", "one"))).join();
+        int firstSegment = log.rotate();
+        log.append(new ConversationLog.Record(ConversationLog.APPEND, log.nextSequence(), "a", new Message("assistant", "two"))).join();
+        log.writeSnapshot(firstSegment, List.of(new ConversationLog.ConversationSnapshot("a", 2,
+                List.of(new Message("user", "one"), new Message("assistant", "two")))));
+        log.append(new ConversationLog.Record(ConversationLog.APPEND, log.nextSequence(), "a", new Message("user", "three"))).join();
+        log.close();
+
+        InMemoryConversationStore store = store(0);
+        try {
+            List<Message> history = store.getHistory("a");
+            assertEquals(List.of("one", "two", "three"), history.stream().map(Message::getContent).toList());
+        } finally {
+            store.shutdown();
+        }
+    }
+
+    private InMemoryConversationStore store(long maxBytes) {
+        return new InMemoryConversationStore(50, Duration.ZERO, maxBytes, true, dir.toString(), 1 << 20,
+                Duration.ZERO, true, Duration.ZERO, false, 16, 6, 1);
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not reached within 5s");
+            Thread.onSpinWait();
+        }
+    }
+}